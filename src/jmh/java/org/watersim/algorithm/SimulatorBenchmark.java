@@ -0,0 +1,72 @@
+package org.watersim.algorithm;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.watersim.benchmark.SyntheticInputs;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+
+import java.util.concurrent.TimeUnit;
+
+// whole frames, every iteration restarts from the same warmed up state
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SimulatorBenchmark {
+
+    @Param({"64", "128", "256"})
+    public int size;
+
+    @Param({"DAM", "CIRCLE"})
+    public SyntheticInputs.Scenario scenario;
+
+    @Param({"SWE", "AIRY", "BOTH"})
+    public SyntheticInputs.Mode mode;
+
+    @Param({"1"})
+    public int threads;
+
+    private Config config;
+    private Grid start;
+    private WallGrid wallGrid;
+
+    private Simulator simulator;
+
+    @Setup
+    public void setUp() {
+        config = SyntheticInputs.config(size, mode, threads);
+        start = SyntheticInputs.warmedUp(config, scenario, 30);
+        wallGrid = SyntheticInputs.create(config, scenario).getRight();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        simulator = new Simulator(config, new ImmutablePair<>(start.copy(), wallGrid));
+    }
+
+    @TearDown
+    public void tearDown() {
+        config.close();
+    }
+
+    @Benchmark
+    public Grid makeNewGrid() {
+        return simulator.makeNewGrid();
+    }
+}
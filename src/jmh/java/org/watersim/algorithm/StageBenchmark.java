@@ -0,0 +1,133 @@
+package org.watersim.algorithm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.watersim.benchmark.SyntheticInputs;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+
+import java.util.concurrent.TimeUnit;
+
+// the stages of one frame in isolation, every stage reads fixed inputs taken from a warmed up run
+// and writes to its own output grids, so repeated calls do the same work
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class StageBenchmark {
+
+    @Param({"64", "128", "256"})
+    public int size;
+
+    @Param({"DAM", "CIRCLE"})
+    public SyntheticInputs.Scenario scenario;
+
+    @Param({"1"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean vectorize;
+
+    @Param({"false", "true"})
+    public boolean airyHalfSpectrum;
+
+    private Config config;
+    private Workspace workspace;
+    private Decomposer decomposer;
+    private BulkFlowComputer bulkFlowComputer;
+    private AiryWaveComputer airyWaveComputer;
+    private SurfaceTransporter surfaceTransporter;
+
+    private Grid grid;
+    private WallGrid wallGrid;
+    private Grid bulk, surface, prevSurface;
+    private Grid newBulk, newSurface;
+
+    private Grid decomposedBulk, decomposedSurface, transportedSurface;
+
+    @Setup
+    public void setUp() {
+        config = SyntheticInputs.config(size, SyntheticInputs.Mode.BOTH, threads, vectorize, airyHalfSpectrum);
+        workspace = new Workspace(config);
+        decomposer = new Decomposer(config);
+        bulkFlowComputer = new BulkFlowComputer(config);
+        airyWaveComputer = new AiryWaveComputer(config);
+        surfaceTransporter = new SurfaceTransporter(config);
+
+        grid = SyntheticInputs.warmedUp(config, scenario, 30);
+        wallGrid = SyntheticInputs.create(config, scenario).getRight();
+
+        bulk = new Grid(config);
+        surface = new Grid(config);
+        decomposer.decompose(grid, wallGrid, bulk, surface, workspace);
+        prevSurface = surface.copy();
+
+        // bulk velocities the way Simulator derives them from the decomposed flow
+        for (int y = 1; y <= config.height; y++) {
+            for (int x = 1; x <= config.width; x++) {
+                int i = bulk.index(x, y);
+
+                if (wallGrid.canFlowRight(x, y)) {
+                    float upwindHX = bulk.getUpwindHX(i);
+                    bulk.ux[i] = upwindHX == 0 ? 0 : bulk.qx[i] / upwindHX;
+                }
+                if (wallGrid.canFlowDown(x, y)) {
+                    float upwindHY = bulk.getUpwindHY(i);
+                    bulk.uy[i] = upwindHY == 0 ? 0 : bulk.qy[i] / upwindHY;
+                }
+            }
+        }
+
+        newBulk = new Grid(config);
+        newSurface = new Grid(config);
+        bulkFlowComputer.computeNewBulkUAndQ(bulk, wallGrid, newBulk, workspace, config.timeStep);
+        airyWaveComputer.computeSurfaceQ(grid, surface, prevSurface, wallGrid, newSurface, config.timeStep);
+
+        decomposedBulk = new Grid(config);
+        decomposedSurface = new Grid(config);
+        transportedSurface = new Grid(config);
+    }
+
+    @TearDown
+    public void tearDown() {
+        config.close();
+    }
+
+    @Benchmark
+    public Grid decompose() {
+        decomposer.decompose(grid, wallGrid, decomposedBulk, decomposedSurface, workspace);
+        return decomposedSurface;
+    }
+
+    @Benchmark
+    public Grid computeNewBulkUAndQ() {
+        bulkFlowComputer.computeNewBulkUAndQ(bulk, wallGrid, newBulk, workspace, config.timeStep);
+        return newBulk;
+    }
+
+    @Benchmark
+    public Grid computeSurfaceQ() {
+        airyWaveComputer.computeSurfaceQ(grid, surface, prevSurface, wallGrid, newSurface, config.timeStep);
+        return newSurface;
+    }
+
+    @Benchmark
+    public Grid transportSurface() {
+        surfaceTransporter.transportSurface(surface, newSurface, bulk, newBulk, wallGrid, transportedSurface,
+                workspace, config.timeStep);
+        return transportedSurface;
+    }
+}
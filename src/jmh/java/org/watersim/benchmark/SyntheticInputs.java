@@ -0,0 +1,109 @@
+package org.watersim.benchmark;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.watersim.algorithm.Simulator;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// generated inputs shaped like the dam and circle scenarios in grids/input, scaled to any size
+public class SyntheticInputs {
+
+    public enum Scenario {
+        DAM, CIRCLE
+    }
+
+    public enum Mode {
+        SWE, AIRY, BOTH
+    }
+
+    public static Config config(int size, Mode mode, int threads) {
+        return config(size, mode, threads, false);
+    }
+
+    public static Config config(int size, Mode mode, int threads, boolean vectorize) {
+        return config(size, mode, threads, vectorize, false);
+    }
+
+    public static Config config(int size, Mode mode, int threads, boolean vectorize, boolean airyHalfSpectrum) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("fps", 60);
+        settings.put("seconds", 1);
+        settings.put("width", size);
+        settings.put("height", size);
+        settings.put("swe", mode != Mode.AIRY);
+        settings.put("airy", mode != Mode.SWE);
+        settings.put("threads", threads);
+        settings.put("vectorize", vectorize);
+        settings.put("airyHalfSpectrum", airyHalfSpectrum);
+
+        return Config.create("benchmark-%s".formatted(size), settings, 1);
+    }
+
+    public static Pair<Grid, WallGrid> create(Config config, Scenario scenario) {
+        return switch (scenario) {
+            case DAM -> damBreak(config);
+            case CIRCLE -> circle(config);
+        };
+    }
+
+    // like large_dam_both: deep water behind a wall with a gap, shallow water in front of it
+    public static Pair<Grid, WallGrid> damBreak(Config config) {
+        var grid = new Grid(config);
+        var wallGrid = new WallGrid(config);
+
+        int damStart = config.height * 51 / 128;
+        int damEnd = config.height * 60 / 128;
+        int gapStart = config.width * 51 / 128;
+        int gapEnd = config.width * 70 / 128;
+
+        for (int y = 1; y <= config.height; y++) {
+            for (int x = 1; x <= config.width; x++) {
+                int i = grid.index(x, y);
+
+                if (y >= damStart && y <= damEnd && (x < gapStart || x > gapEnd))
+                    wallGrid.h[i] = 5;
+                else
+                    grid.h[i] = y < damStart ? 5 : 1;
+            }
+        }
+        wallGrid.updateConnectivity();
+
+        return new ImmutablePair<>(grid, wallGrid);
+    }
+
+    // like medium_circle_water: a raised column of water in the middle of a still pool
+    public static Pair<Grid, WallGrid> circle(Config config) {
+        var grid = new Grid(config);
+        var wallGrid = new WallGrid(config);
+
+        float centerX = (config.width + 1) / 2f;
+        float centerY = (config.height + 1) / 2f;
+        float radius = Math.min(config.width, config.height) * 3 / 32f;
+
+        for (int y = 1; y <= config.height; y++) {
+            for (int x = 1; x <= config.width; x++) {
+                float dx = x - centerX;
+                float dy = y - centerY;
+
+                grid.h[grid.index(x, y)] = dx * dx + dy * dy <= radius * radius ? 7 : 1;
+            }
+        }
+
+        return new ImmutablePair<>(grid, wallGrid);
+    }
+
+    // a state some frames into the run, so velocities and surface waves are not all zero
+    public static Grid warmedUp(Config config, Scenario scenario, int frames) {
+        var simulator = new Simulator(config, create(config, scenario));
+        for (int i = 0; i < frames; i++) {
+            simulator.makeNewGrid();
+        }
+
+        return simulator.getGrid().copy();
+    }
+}
@@ -0,0 +1,148 @@
+package org.watersim.io;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.watersim.benchmark.SyntheticInputs;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// reading the simulation input in both formats and writing frames in every output format
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GridIoBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class InputState {
+
+        @Param({"64", "128", "256"})
+        public int size;
+
+        Config config;
+        Path directory;
+        Path textPath;
+        Path snapshotPath;
+
+        @Setup
+        public void setUp() throws IOException {
+            config = SyntheticInputs.config(size, SyntheticInputs.Mode.BOTH, 1);
+            directory = Files.createTempDirectory("watersim-input");
+            textPath = directory.resolve("data.txt");
+            snapshotPath = directory.resolve("data.bin");
+
+            // the circle input after some frames, so the heights are not all short round numbers
+            Grid grid = SyntheticInputs.warmedUp(config, SyntheticInputs.Scenario.CIRCLE, 30);
+            Grid wallGrid = SyntheticInputs.create(config, SyntheticInputs.Scenario.CIRCLE).getRight();
+
+            try (BufferedWriter writer = Files.newBufferedWriter(textPath)) {
+                writer.write(grid.toString(Grid.DataType.H));
+                writer.write("-\n");
+                writer.write(wallGrid.toString(Grid.DataType.H));
+            }
+            GridSnapshot.write(snapshotPath, grid, wallGrid);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            deleteDirectory(directory);
+            config.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class OutputState {
+
+        @Param({"64", "128", "256"})
+        public int size;
+
+        @Param({"TEXT", "BINARY", "COMPRESSED"})
+        public Config.OutputFormat format;
+
+        Config config;
+        Grid grid;
+        Path directory;
+        FrameWriter writer;
+
+        @Setup
+        public void setUp() {
+            Map<String, Object> settings = new HashMap<>();
+            settings.put("fps", 60);
+            settings.put("width", size);
+            settings.put("height", size);
+            settings.put("swe", true);
+            settings.put("airy", true);
+            settings.put("threads", 1);
+            settings.put("outputFormat", format.name());
+            settings.put("synchronousOutput", true);
+
+            config = Config.create("benchmark-%s".formatted(size), settings, 1);
+            grid = SyntheticInputs.warmedUp(config, SyntheticInputs.Scenario.DAM, 30);
+        }
+
+        // a fresh file every iteration keeps the output from growing without bound
+        @Setup(Level.Iteration)
+        public void setUpIteration() throws IOException {
+            directory = Files.createTempDirectory("watersim-output");
+            writer = FrameWriter.open(config, directory, 0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDownIteration() throws IOException {
+            writer.close();
+            deleteDirectory(directory);
+        }
+
+        @TearDown
+        public void tearDown() {
+            config.close();
+        }
+    }
+
+    @Benchmark
+    public Pair<Grid, WallGrid> parseText(InputState state) {
+        return Grid.parseInput(state.config, state.textPath);
+    }
+
+    @Benchmark
+    public Pair<Grid, WallGrid> readSnapshot(InputState state) {
+        return GridSnapshot.read(state.config, state.snapshotPath);
+    }
+
+    @Benchmark
+    public void writeFrame(OutputState state) {
+        state.writer.write(state.grid);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
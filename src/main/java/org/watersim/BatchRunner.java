@@ -0,0 +1,87 @@
+package org.watersim;
+
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// runs several scenarios in one JVM, usage: [--jobs n] [scenario...]
+// without scenario names every directory in grids/input with a config.json is run
+public class BatchRunner {
+
+    public static void main(String[] args) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int jobs = cpus;
+        List<String> names = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--jobs") && i + 1 < args.length)
+                jobs = Math.max(1, Integer.parseInt(args[++i]));
+            else
+                names.add(args[i]);
+        }
+        if (names.isEmpty())
+            names = findScenarios();
+
+        // scenarios that do not set threads share the processors between the concurrent jobs
+        int defaultThreads = Math.max(1, cpus / Math.min(jobs, Math.max(1, names.size())));
+
+        long batchStart = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        List<Future<?>> futures = new ArrayList<>();
+        for (String name : names) {
+            futures.add(executor.submit(() -> {
+                Config config = Config.read(name, defaultThreads);
+                try {
+                    Main.simulate(config, false);
+                }
+                finally {
+                    config.close();
+                }
+            }));
+        }
+
+        int failed = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            }
+            catch (ExecutionException e) {
+                failed++;
+                System.out.printf("'%s' failed: %s\n", names.get(i), e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        executor.shutdown();
+
+        long batchTime = System.currentTimeMillis() - batchStart;
+        System.out.printf("Batch of %s scenarios took: %ss, %s failed\n", names.size(), batchTime / 1000, failed);
+
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static List<String> findScenarios() {
+        try (Stream<Path> dirs = Files.list(Paths.get("grids/input"))) {
+            return dirs.filter(dir -> Files.exists(dir.resolve("config.json")))
+                    .map(dir -> dir.getFileName().toString())
+                    .sorted()
+                    .toList();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -3,102 +3,133 @@ package org.watersim;
 import me.tongfei.progressbar.ProgressBar;
 import org.watersim.algorithm.Simulator;
 import org.watersim.grid.Grid;
+import org.watersim.io.FrameWriter;
+import org.watersim.io.GridSnapshot;
 import org.watersim.util.Config;
 import org.watersim.util.GridBuilder;
+import org.watersim.util.StageTimer;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class Main {
 
     public static void main(String[] args) {
-        Config.readConfig();
+        Config config = Config.read(Config.readName());
 
-        if (Config.USE_BUILDER) {
-            System.out.printf("Building grids for '%s'\n".formatted(Config.NAME));
-            GridBuilder.buildGrid();
+        simulate(config, true);
+        config.close();
+
+        System.exit(0);
+    }
+
+    // runs one scenario to the end, only touches files under its own name so several can run side by side
+    public static void simulate(Config config, boolean showProgress) {
+        if (config.useBuilder) {
+            System.out.printf("Building grids for '%s'\n", config.name);
+            GridBuilder.buildGrid(config);
         }
 
-        System.out.printf("Simulating '%s'\n", Config.NAME);
+        System.out.printf("Simulating '%s'\n", config.name);
 
-        String outPath = "grids/output/%s/%s.txt";
-        Path parentPath = Paths.get(outPath.formatted(Config.NAME, 0)).getParent();
+        Path parentPath = Paths.get("grids/output/%s".formatted(config.name));
+        Path checkpointPath = Paths.get("grids/checkpoints/%s.bin".formatted(config.name));
+        boolean resuming = config.resume && Files.exists(checkpointPath);
 
         try {
             Files.createDirectories(parentPath);
+            Files.createDirectories(checkpointPath.getParent());
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        // delete frames
-        try (Stream<Path> fileStream = Files.list(parentPath)) {
-            for (Path file : fileStream.toList()) {
-                Files.delete(file);
+        // delete frames and the checkpoint of an earlier run
+        if (!resuming) {
+            try (Stream<Path> fileStream = Files.list(parentPath)) {
+                for (Path file : fileStream.toList()) {
+                    Files.delete(file);
+                }
+                Files.deleteIfExists(checkpointPath);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
-        int numFrames = Math.round(Config.LENGTH / Config.TIME_STEP);
+        int numFrames = Math.round(config.length / config.timeStep);
         long simStart = System.currentTimeMillis();
 
-        try {
-            BufferedWriter writer = null;
-            Path fullFilePath = Paths.get(outPath.formatted(Config.NAME, "full"));
-            if (!Config.SEPARATE_FILES) {
-                try {
-                    Files.deleteIfExists(fullFilePath);
-                    writer = Files.newBufferedWriter(fullFilePath);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
+        var simulator = new Simulator(config, getInputPath(config));
+        if (resuming) {
+            simulator.loadCheckpoint(checkpointPath);
+            System.out.printf("Resuming '%s' after frame %s\n", config.name, simulator.getFrame());
+        }
+        int startFrame = simulator.getFrame();
+        int simFrames = numFrames - startFrame;
+
+        try (FrameWriter writer = FrameWriter.open(config, parentPath, resuming ? startFrame + 1 : 0)) {
+            if (!resuming)
+                writer.write(simulator.getGrid());
 
-            var simulator = new Simulator(Paths.get("grids/input/%s/data.txt".formatted(Config.NAME)));
-            if (Config.SEPARATE_FILES)
-                simulator.getGrid().dump(outPath.formatted(Config.NAME, 0));
-            else {
-                assert writer != null;
-                writer.write(simulator.getGrid().toString());
-                writer.write("--\n");
+            ProgressBar bar = null;
+            if (showProgress) {
+                bar = new ProgressBar("Sim", numFrames);
+                bar.stepTo(startFrame);
             }
 
-            var bar = new ProgressBar("Sim", numFrames);
+            StageTimer timer = simulator.getTimer();
+            while (simulator.getFrame() < numFrames) {
+                timer.startFrame();
 
-            for (; Config.FRAME <= numFrames; Config.FRAME++) {
                 Grid newGrid = simulator.makeNewGrid();
-
-                if (Config.SEPARATE_FILES)
-                    newGrid.dump(outPath.formatted(Config.NAME, Config.FRAME));
-                else {
-                    assert writer != null;
-                    writer.write(newGrid.toString());
-                    writer.write("--\n");
+                writer.write(newGrid);
+                timer.lap(StageTimer.Stage.OUTPUT);
+
+                // the frames written so far must be on disk before the checkpoint that follows them
+                if (config.checkpointInterval > 0 && simulator.getFrame() % config.checkpointInterval == 0) {
+                    writer.flush();
+                    simulator.saveCheckpoint(checkpointPath);
+                    timer.lap(StageTimer.Stage.CHECKPOINT);
                 }
 
-                bar.step();
-                bar.refresh();
-            }
-
-            bar.close();
+                timer.endFrame(simulator.getFrame());
 
-            if (!Config.SEPARATE_FILES) {
-                assert writer != null;
-                writer.close();
+                if (bar != null) {
+                    bar.step();
+                    bar.refresh();
+                }
             }
+
+            if (bar != null)
+                bar.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
         long simTime = System.currentTimeMillis() - simStart;
-        System.out.printf("Sim took: %ss (%sms per frame)\n", simTime / 1000, simTime / numFrames);
+        System.out.printf("Sim of '%s' took: %ss (%sms per frame)\n",
+                config.name, simTime / 1000, simTime / Math.max(1, simFrames));
 
-        System.exit(0);
+        StageTimer timer = simulator.getTimer();
+        if (timer.isEnabled()) {
+            timer.export(Paths.get("grids/profiles"));
+            System.out.print(timer.summaryTable());
+        }
+        timer.close();
+    }
+
+    private static Path getInputPath(Config config) {
+        Path textPath = Paths.get("grids/input/%s/data.txt".formatted(config.name));
+        if (config.inputFormat == Config.InputFormat.TEXT)
+            return textPath;
+
+        // parse the text input once and load the snapshot from then on
+        Path snapshotPath = Paths.get("grids/input/%s/data.bin".formatted(config.name));
+        if (!GridSnapshot.isUpToDate(textPath, snapshotPath))
+            GridSnapshot.convert(config, textPath, snapshotPath);
+
+        return snapshotPath;
     }
-}
\ No newline at end of file
+}
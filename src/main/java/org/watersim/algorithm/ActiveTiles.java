@@ -0,0 +1,174 @@
+package org.watersim.algorithm;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+import org.watersim.util.Parallel;
+
+import java.util.Arrays;
+
+// the TILE_SIZE x TILE_SIZE tiles that can hold water or flow this frame, passes only visit their cells.
+// a tile is activated once water or flow is within one tile of it and then stays active, so the cells of
+// inactive tiles were never written and still hold the zeros a full pass would compute for them. the flags go into
+// checkpoints, a resume rebuilt from the grid alone would skip the tiles that dried since they were activated
+class ActiveTiles {
+
+    static final int TILE_SIZE = 16;
+
+    interface SpanConsumer {
+        void accept(int y, int from, int to);
+    }
+
+    private final boolean tracking;
+    private final int width, height;
+    private final int tilesX, tilesY;
+
+    private final boolean[] active;
+    private final boolean[] wet;
+    private boolean allActive;
+
+    // per tile row the runs of active tiles as inclusive start, end x pairs
+    private final int[][] spans;
+
+    ActiveTiles(Config config) {
+        tracking = config.activeTiles;
+        width = config.width;
+        height = config.height;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        active = new boolean[tilesX * tilesY];
+        wet = new boolean[tilesX * tilesY];
+        spans = new int[tilesY][];
+
+        // without tracking every tile is active from the start
+        if (!tracking)
+            Arrays.fill(active, true);
+        allActive = !tracking;
+
+        buildSpans();
+    }
+
+    boolean isAllActive() {
+        return allActive;
+    }
+
+    // the active flag of every tile, row by row
+    boolean[] getTiles() {
+        return active;
+    }
+
+    // replaces the flags with ones from getTiles, without tracking every tile stays active
+    void restore(boolean[] tiles) {
+        if (!tracking)
+            return;
+
+        System.arraycopy(tiles, 0, active, 0, active.length);
+        buildSpans();
+    }
+
+    // activates the tiles around cells with water or flow
+    void update(Grid grid) {
+        if (allActive)
+            return;
+
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                wet[ty * tilesX + tx] = needsScan(tx, ty) && isWet(grid, tx, ty);
+            }
+        }
+
+        boolean changed = false;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (active[ty * tilesX + tx] || !hasWetNeighbour(tx, ty))
+                    continue;
+
+                active[ty * tilesX + tx] = true;
+                changed = true;
+            }
+        }
+
+        if (changed)
+            buildSpans();
+    }
+
+    // runs span(y, from, to) for the active cells of every row in [from, to], rows are spread over the pool
+    void forEachSpan(Parallel parallel, int from, int to, SpanConsumer span) {
+        parallel.forEachRow(from, to, y -> {
+            int[] rowSpans = spans[(y - 1) / TILE_SIZE];
+            for (int s = 0; s < rowSpans.length; s += 2) {
+                span.accept(y, rowSpans[s], rowSpans[s + 1]);
+            }
+        });
+    }
+
+    // only tiles that are inactive themselves or next to an inactive tile can change anything
+    private boolean needsScan(int tx, int ty) {
+        for (int ny = Math.max(0, ty - 1); ny <= Math.min(tilesY - 1, ty + 1); ny++) {
+            for (int nx = Math.max(0, tx - 1); nx <= Math.min(tilesX - 1, tx + 1); nx++) {
+                if (!active[ny * tilesX + nx])
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isWet(Grid grid, int tx, int ty) {
+        int xEnd = Math.min(width, (tx + 1) * TILE_SIZE);
+        int yEnd = Math.min(height, (ty + 1) * TILE_SIZE);
+
+        for (int y = ty * TILE_SIZE + 1; y <= yEnd; y++) {
+            for (int x = tx * TILE_SIZE + 1; x <= xEnd; x++) {
+                int i = grid.index(x, y);
+                if (grid.h[i] != 0 || grid.qx[i] != 0 || grid.qy[i] != 0)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean hasWetNeighbour(int tx, int ty) {
+        for (int ny = Math.max(0, ty - 1); ny <= Math.min(tilesY - 1, ty + 1); ny++) {
+            for (int nx = Math.max(0, tx - 1); nx <= Math.min(tilesX - 1, tx + 1); nx++) {
+                if (wet[ny * tilesX + nx])
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void buildSpans() {
+        boolean all = true;
+
+        for (int ty = 0; ty < tilesY; ty++) {
+            int[] rowSpans = new int[tilesX * 2];
+            int length = 0;
+
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (!active[ty * tilesX + tx]) {
+                    all = false;
+                    continue;
+                }
+
+                int from = tx * TILE_SIZE + 1;
+                int to = Math.min(width, (tx + 1) * TILE_SIZE);
+
+                // merge with the run of the tile to the left
+                if (length > 0 && rowSpans[length - 1] == from - 1) {
+                    rowSpans[length - 1] = to;
+                }
+                else {
+                    rowSpans[length++] = from;
+                    rowSpans[length++] = to;
+                }
+            }
+
+            spans[ty] = Arrays.copyOf(rowSpans, length);
+        }
+
+        allActive = all;
+    }
+}
@@ -0,0 +1,132 @@
+package org.watersim.algorithm;
+
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+
+import static org.watersim.util.Utils.lerp;
+
+// semi-Lagrangian advection of the surface on primitives, each method fills one plane for the cells
+// [from, to] of row y and only reads its inputs, so planes and rows can be advected in any order or at once.
+// the backtrace does the same double arithmetic as the former Vector2D version, the results are identical
+class AdvectionKernel {
+
+    // probes along a backtrace, it stops at the last probe before a wall
+    private static final float NUM_STEPS = 5;
+
+    private final int width, height;
+
+    AdvectionKernel(Config config) {
+        width = config.width;
+        height = config.height;
+    }
+
+    // qx lives on the right face of a cell and moves with the x velocity there
+    void advectQX(int y, int from, int to, Grid velocity, Grid source, WallGrid walls, float[] target, float timeStep) {
+        for (int x = from; x <= to; x++) {
+            int cur = source.index(x, y);
+
+            // trace back to the starting position
+            double startX = x + 0.5;
+            double diffX = -velocity.ux[cur] * timeStep;
+            float xPos = (float) (startX + traceFactor(startX, y, diffX, 0, walls) * diffX);
+
+            int leftPos = (int) Math.floor(xPos - 0.5);
+            if (walls.h[walls.index(leftPos, y)] > 0)
+                leftPos++;
+
+            int rightPos = (int) Math.ceil(xPos - 0.5);
+
+            float leftQX = source.qx[source.index(leftPos, y)];
+            float rightQX = source.qx[source.index(rightPos, y)];
+
+            target[cur] = lerp(leftQX, rightQX, xPos - (leftPos + 0.5f));
+        }
+    }
+
+    // qy lives on the bottom face of a cell and moves with the y velocity there
+    void advectQY(int y, int from, int to, Grid velocity, Grid source, WallGrid walls, float[] target, float timeStep) {
+        for (int x = from; x <= to; x++) {
+            int cur = source.index(x, y);
+
+            double startY = y + 0.5;
+            double diffY = -velocity.uy[cur] * timeStep;
+            float yPos = (float) (startY + traceFactor(x, startY, 0, diffY, walls) * diffY);
+
+            int upPos = (int) Math.floor(yPos - 0.5);
+            if (walls.h[walls.index(x, upPos)] > 0)
+                upPos++;
+
+            int downPos = (int) Math.ceil(yPos - 0.5);
+
+            float upQY = source.qy[source.index(x, upPos)];
+            float downQY = source.qy[source.index(x, downPos)];
+
+            target[cur] = lerp(upQY, downQY, yPos - (upPos + 0.5f));
+        }
+    }
+
+    // h lives in the cell center and moves with the face velocities around it, only half a time step
+    void advectH(int y, int from, int to, Grid velocity, Grid source, WallGrid walls, float[] target, float timeStep) {
+        for (int x = from; x <= to; x++) {
+            int cur = source.index(x, y);
+
+            float horizontalU = (velocity.ux[cur] + velocity.ux[cur - 1]) / 2;
+            float verticalU = (velocity.uy[cur] + velocity.uy[cur - velocity.stride]) / 2;
+
+            double diffX = -(double) (horizontalU * timeStep / 2);
+            double diffY = -(double) (verticalU * timeStep / 2);
+            double factor = traceFactor(x, y, diffX, diffY, walls);
+            double xPos = x + factor * diffX;
+            double yPos = y + factor * diffY;
+
+            int xMin = (int) Math.floor(xPos);
+            if (walls.h[walls.index(xMin, y)] > 0)
+                xMin++;
+
+            int xMax = (int) Math.ceil(xPos);
+            if (walls.h[walls.index(xMax, y)] > 0)
+                xMax--;
+
+            int yMin = (int) Math.floor(yPos);
+            if (walls.h[walls.index(x, yMin)] > 0)
+                yMin++;
+
+            int yMax = (int) Math.ceil(yPos);
+            if (walls.h[walls.index(x, yMax)] > 0)
+                yMax--;
+
+            float topLeftVal = source.h[source.index(xMin, yMin)];
+            float topRightVal = source.h[source.index(xMax, yMin)];
+            float bottomLeftVal = source.h[source.index(xMin, yMax)];
+            float bottomRightVal = source.h[source.index(xMax, yMax)];
+
+            float lerpYMin = lerp(topLeftVal, topRightVal, (float) xPos - xMin);
+            float lerpYMax = lerp(bottomLeftVal, bottomRightVal, (float) xPos - xMin);
+
+            target[cur] = lerp(lerpYMin, lerpYMax, (float) yPos - yMin);
+        }
+    }
+
+    // fraction of the trace from start along diff that can be followed, probing NUM_STEPS points
+    // and stopping at the last one before a probe lands in a wall
+    private double traceFactor(double startX, double startY, double diffX, double diffY, WallGrid walls) {
+        // the probed cells are at most reach + 1 cells from the start cell in each axis, none can be a wall
+        double reach = Math.max(Math.abs(diffX), Math.abs(diffY));
+        int startCellX = Math.clamp(Math.round(startX), 0, width + 1);
+        int startCellY = Math.clamp(Math.round(startY), 0, height + 1);
+        if (reach + 1 < walls.getWallDistance(startCellX, startCellY))
+            return 1;
+
+        for (int i = 1; i <= NUM_STEPS; i++) {
+            double factor = i / NUM_STEPS;
+
+            int x = Math.clamp(Math.round(startX + factor * diffX), 0, width + 1);
+            int y = Math.clamp(Math.round(startY + factor * diffY), 0, height + 1);
+            if (walls.h[walls.index(x, y)] > 0)
+                return (i - 1) / NUM_STEPS;
+        }
+
+        return 1;
+    }
+}
@@ -1,63 +1,293 @@
 package org.watersim.algorithm;
 
+import org.jtransforms.fft.FloatFFT_1D;
 import org.jtransforms.fft.FloatFFT_2D;
-import org.watersim.grid.Cell;
 import org.watersim.grid.WallGrid;
 import org.watersim.util.Config;
+import org.watersim.util.Parallel;
 import org.watersim.grid.Grid;
 
-import static org.watersim.util.Config.HEIGHT;
-import static org.watersim.util.Config.WIDTH;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 import static org.watersim.util.Utils.lerp;
 
 public class AiryWaveComputer {
 
-    public static Grid computeSurfaceQ(Grid grid, Grid surface, Grid prevSurface, WallGrid wallGrid) {
-        // set up arrays
-        float[][] surfaceH = new float[HEIGHT][WIDTH * 2];
-        float[][] surfaceQX = new float[HEIGHT][WIDTH * 2];
-        float[][] surfaceQY = new float[HEIGHT][WIDTH * 2];
-        float[][][] newSurfaceQX = new float[4][HEIGHT][WIDTH * 2];
-        float[][][] newSurfaceQY = new float[4][HEIGHT][WIDTH * 2];
-
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                surfaceH[y - 1][x - 1] = (surface.getCell(x, y).h + prevSurface.getCell(x, y).h) / 2;
-                surfaceQX[y - 1][x - 1] = surface.getCell(x, y).qx;
-                surfaceQY[y - 1][x - 1] = surface.getCell(x, y).qy;
+    // region computers kept between frames, more only while a frame has more regions than that
+    private static final int REGION_COMPUTERS = 8;
+
+    private final Config config;
+    private final Parallel parallel;
+    private final int width, height;
+
+    // one plan per concurrent transform, a plan keeps scratch state while transforming
+    private final FloatFFT_2D[] ffts;
+
+    // half spectrum mode: rows are transformed real to complex, which keeps the wave numbers 0 .. width / 2 of the
+    // hermitian spectrum, and those columns complex to complex. the 1d plans only hold tables and are shared
+    private final boolean halfSpectrum;
+    private final int bins;
+    private final FloatFFT_1D rowFft, columnFft;
+    // column scratch per chunk of columns, shifted x and y derivatives of h, qx, qy and the propagated qx and qy
+    private final float[][][] columnScratch;
+
+    // reference depths for interpolation, a geometric ladder starting at AIRY_MIN_DEPTH
+    private final int depths;
+    private final float[] heights;
+
+    // wave numbers and half cell shift phases, per column for x and per row for y
+    private final float[] kXs, kYs;
+    private final float[] shiftRealXs, shiftImXs;
+    private final float[] shiftRealYs, shiftImYs;
+
+    // wave number magnitudes and angular frequencies per depth, indexed [depth][y * width + x], they do not depend
+    // on the time step so a step change only evaluates the cos and sin of the phases again
+    private final float[] ks;
+    private final float[][] omegas;
+
+    // propagation coefficients per depth and wave number, indexed [depth][y * width + x], for coefficientTimeStep
+    private final float[][] qParts;
+    private final float[][] hParts;
+    private float coefficientTimeStep;
+
+    // spectral work buffers
+    private final float[][] surfaceH;
+    private final float[][] surfaceQX;
+    private final float[][] surfaceQY;
+    private final float[][][] newSurfaceQX;
+    private final float[][][] newSurfaceQY;
+
+    // with airyWetRegions the wet regions of the grid are solved on their own, by computers of the region sizes.
+    // null for those region computers and without the option
+    private final WetRegions wetRegions;
+    // computers by region size, least recently used first. a computer holds the plans, tables and buffers of a
+    // whole solve, so sizes that come back are reused and only the least recently used beyond a few are dropped
+    private final LinkedHashMap<Long, AiryWaveComputer> regionComputers = new LinkedHashMap<>(16, 0.75f, true);
+
+    // region computers read the depth of their own cells, the whole grid reads row 1 as it always has
+    private final boolean region;
+
+    public AiryWaveComputer(Config config) {
+        // the y wave numbers of the whole grid fold at half the width, as they always have
+        this(config, config.width, config.height, config.width / 2f,
+                config.airyWetRegions ? new WetRegions(config) : null, false);
+    }
+
+    // solves a width x height part of the grid, the origin is passed to computeRegion
+    private AiryWaveComputer(Config config, int width, int height) {
+        this(config, width, height, height / 2f, null, true);
+    }
+
+    private AiryWaveComputer(Config config, int width, int height, float halfY, WetRegions wetRegions,
+                             boolean region) {
+        this.config = config;
+        parallel = config.getParallel();
+        this.width = width;
+        this.height = height;
+        this.wetRegions = wetRegions;
+        this.region = region;
+
+        halfSpectrum = config.airyHalfSpectrum;
+        bins = width / 2 + 1;
+        // only the columns of wave numbers that are transformed need coefficients
+        int columns = halfSpectrum ? bins : width;
+
+        depths = config.airyDepths;
+        heights = new float[depths];
+        for (int i = 0; i < depths; i++) {
+            heights[i] = (float) (config.airyMinDepth * Math.pow(config.airyDepthRatio, i));
+        }
+
+        float half = width / 2f;
+
+        kXs = new float[width];
+        shiftRealXs = new float[width];
+        shiftImXs = new float[width];
+        for (int x = 0; x < width; x++) {
+            float kX = x < half ? x
+                    : x > half ? x - width
+                    : 0;
+            kX = (float) (2 * Math.PI * kX / width);
+
+            // shift h to q position
+            float shiftTermX = kX * Config.CELL_SIZE / 2;
+
+            kXs[x] = kX;
+            shiftRealXs[x] = (float) Math.cos(shiftTermX);
+            shiftImXs[x] = (float) Math.sin(shiftTermX);
+        }
+
+        kYs = new float[height];
+        shiftRealYs = new float[height];
+        shiftImYs = new float[height];
+        for (int y = 0; y < height; y++) {
+            float kY = y < halfY ? y
+                    : y > halfY ? y - height
+                    : 0;
+            kY = (float) (2 * Math.PI * kY / height);
+
+            float shiftTermY = kY * Config.CELL_SIZE / 2;
+
+            kYs[y] = kY;
+            shiftRealYs[y] = (float) Math.cos(shiftTermY);
+            shiftImYs[y] = (float) Math.sin(shiftTermY);
+        }
+
+        ks = new float[height * width];
+        omegas = new float[depths][height * width];
+        parallel.forEachRow(0, height - 1, y -> {
+            for (int x = 0; x < columns; x++) {
+                float kX = kXs[x];
+                float kY = kYs[y];
+
+                float k = (float) Math.sqrt(Math.pow(kX, 2) + Math.pow(kY, 2));
+                ks[y * width + x] = k;
+
+                for (int i = 0; i < depths; i++) {
+                    float beta = (float) (Math.sqrt(2 / (k * Config.CELL_SIZE) * Math.sin(k * Config.CELL_SIZE / 2)));
+                    omegas[i][y * width + x] = (float) Math.sqrt(Config.GRAVITY * k * Math.tanh(k * heights[i])) / beta;
+                }
             }
+        });
+
+        qParts = new float[depths][height * width];
+        hParts = new float[depths][height * width];
+        computeCoefficients(config.timeStep);
+
+        // interleaved complex rows, of the full spectrum or of bins wave numbers
+        int rowLength = halfSpectrum ? bins * 2 : width * 2;
+        surfaceH = new float[height][rowLength];
+        surfaceQX = new float[height][rowLength];
+        surfaceQY = new float[height][rowLength];
+        newSurfaceQX = new float[depths][height][rowLength];
+        newSurfaceQY = new float[depths][height][rowLength];
+
+        if (halfSpectrum) {
+            ffts = null;
+            rowFft = new FloatFFT_1D(width);
+            columnFft = new FloatFFT_1D(height);
+            columnScratch = new float[Math.min(parallel.getThreads(), bins)][6][height * 2];
         }
+        else {
+            ffts = new FloatFFT_2D[Math.max(3, depths * 2)];
+            for (int i = 0; i < ffts.length; i++) {
+                ffts[i] = new FloatFFT_2D(height, width);
+            }
+            rowFft = null;
+            columnFft = null;
+            columnScratch = null;
+        }
+    }
+
+    // coefficients that propagate the surface over timeStep, rebuilt by computeSurfaceQ when the step size changes
+    private void computeCoefficients(float timeStep) {
+        coefficientTimeStep = timeStep;
 
-        // compute heights for interpolation
-        float[] heights = new float[4];
-        for (int i = 0; i < 4; i++) {
-            heights[i] = (float) Math.pow(2, i * 2);
+        int columns = halfSpectrum ? bins : width;
+        parallel.forEachRow(0, height - 1, y -> {
+            for (int x = 0; x < columns; x++) {
+                float k = ks[y * width + x];
+
+                for (int i = 0; i < depths; i++) {
+                    float omega = omegas[i][y * width + x];
+
+                    qParts[i][y * width + x] = k == 0 ? 0 : (float) Math.cos(omega * timeStep);
+                    hParts[i][y * width + x] = k == 0 ? 0 : (float) (Math.sin(omega * timeStep) * omega / Math.pow(k, 2));
+                }
+            }
+        });
+    }
+
+    public void computeSurfaceQ(Grid grid, Grid surface, Grid prevSurface, WallGrid wallGrid, Grid newSurface,
+                                float timeStep) {
+        if (wetRegions == null) {
+            computeRegion(grid, surface, prevSurface, newSurface, 0, 0, timeStep);
+            return;
         }
 
-        // compute fft arrays
-        var fft = new FloatFFT_2D(WIDTH, HEIGHT);
-        fft.realForwardFull(surfaceH);
-        fft.realForwardFull(surfaceQX);
-        fft.realForwardFull(surfaceQY);
+        wetRegions.update(grid);
+        if (wetRegions.coversGrid()) {
+            regionComputers.clear();
+            computeRegion(grid, surface, prevSurface, newSurface, 0, 0, timeStep);
+            return;
+        }
+
+        // cells outside the regions have no surface flow
+        Arrays.fill(newSurface.qx, 0);
+        Arrays.fill(newSurface.qy, 0);
+
+        List<int[]> regions = wetRegions.getRegions();
+        for (int[] region : regions) {
+            int regionWidth = region[2];
+            int regionHeight = region[3];
 
-        float half = WIDTH / 2f;
+            var computer = regionComputers.computeIfAbsent((long) regionWidth << 32 | regionHeight,
+                    key -> new AiryWaveComputer(config, regionWidth, regionHeight));
+            computer.computeRegion(grid, surface, prevSurface, newSurface, region[0] - 1, region[1] - 1, timeStep);
+        }
+        wetRegions.keepWetFaces(grid, newSurface);
 
-        for (int x = 0; x < WIDTH; x++) {
-            int realX = x * 2;
-            int imX = realX + 1;
+        // the sizes of this frame are the most recently used, so they always stay
+        int keep = Math.max(REGION_COMPUTERS, regions.size());
+        var eldest = regionComputers.keySet().iterator();
+        while (regionComputers.size() > keep) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
 
-            for (int y = 0; y < HEIGHT; y++) {
-                float kX = x < half ? x
-                        : x > half ? x - WIDTH
-                        : 0;
-                float kY = y < half ? y
-                        : y > half ? y - HEIGHT
-                        : 0;
+    // propagates the surface of the cells (originX + 1, originY + 1) to (originX + width, originY + height)
+    private void computeRegion(Grid grid, Grid surface, Grid prevSurface, Grid newSurface, int originX, int originY,
+                               float timeStep) {
+        if (timeStep != coefficientTimeStep)
+            computeCoefficients(timeStep);
 
-                kX = (float) (2 * Math.PI * kX / WIDTH);
-                kY = (float) (2 * Math.PI * kY / HEIGHT);
+        // only propagate the depth levels the interpolation can reach
+        int fromDepth = 0;
+        int toDepth = depths - 1;
+        if (config.airySkipUnusedDepths) {
+            fromDepth = getDepthBelow(grid.minHeight());
+            toDepth = getDepthAbove(grid.maxHeight());
+        }
 
-                float k = (float) Math.sqrt(Math.pow(kX, 2) + Math.pow(kY, 2));
+        if (halfSpectrum)
+            propagateHalfSpectrum(grid, surface, prevSurface, newSurface, originX, originY, fromDepth, toDepth);
+        else
+            propagateFullSpectrum(grid, surface, prevSurface, newSurface, originX, originY, fromDepth, toDepth);
+    }
+
+    private void propagateFullSpectrum(Grid grid, Grid surface, Grid prevSurface, Grid newSurface,
+                                       int originX, int originY, int fromDepth, int toDepth) {
+        // set up arrays
+        parallel.forEachRow(1, height, y -> {
+            for (int x = 1; x <= width; x++) {
+                int i = surface.index(originX + x, originY + y);
+
+                surfaceH[y - 1][x - 1] = (surface.h[i] + prevSurface.h[i]) / 2;
+                surfaceQX[y - 1][x - 1] = surface.qx[i];
+                surfaceQY[y - 1][x - 1] = surface.qy[i];
+            }
+        });
+
+        // compute fft arrays
+        parallel.forEach(0, 2, i -> {
+            switch (i) {
+                case 0 -> ffts[i].realForwardFull(surfaceH);
+                case 1 -> ffts[i].realForwardFull(surfaceQX);
+                case 2 -> ffts[i].realForwardFull(surfaceQY);
+            }
+        });
+
+        parallel.forEachRow(0, height - 1, y -> {
+            for (int x = 0; x < width; x++) {
+                int realX = x * 2;
+                int imX = realX + 1;
+                int coefficientIndex = y * width + x;
+
+                float kX = kXs[x];
+                float kY = kYs[y];
 
                 // compute derivative
                 float realDX = -kX * surfaceH[y][imX];
@@ -66,13 +296,10 @@ public class AiryWaveComputer {
                 float imDY = kY * surfaceH[y][realX];
 
                 // shift h to q position
-                float shiftTermX = kX * Config.CELL_SIZE / 2;
-                float shiftTermY = kY * Config.CELL_SIZE / 2;
-
-                float shiftRealX = (float) Math.cos(shiftTermX);
-                float shiftImX = (float) Math.sin(shiftTermX);
-                float shiftRealY = (float) Math.cos(shiftTermY);
-                float shiftImY = (float) Math.sin(shiftTermY);
+                float shiftRealX = shiftRealXs[x];
+                float shiftImX = shiftImXs[x];
+                float shiftRealY = shiftRealYs[y];
+                float shiftImY = shiftImYs[y];
 
                 // (a + ib) * (c * id) = ac + iad + ibc - bd
                 float realShiftedDX = realDX * shiftRealX - imDX * shiftImX;
@@ -80,12 +307,9 @@ public class AiryWaveComputer {
                 float realShiftedDY = realDY * shiftRealY - imDY * shiftImY;
                 float imShiftedDY = realDY * shiftImY + imDY * shiftRealY;
 
-                for (int i = 0; i < 4; i++) {
-                    float beta = (float) (Math.sqrt(2 / (k * Config.CELL_SIZE) * Math.sin(k * Config.CELL_SIZE / 2)));
-                    float omega = (float) Math.sqrt(Config.GRAVITY * k * Math.tanh(k * heights[i])) / beta;
-
-                    float qPart = k == 0 ? 0 : (float) Math.cos(omega * Config.TIME_STEP);
-                    float hPart = k == 0 ? 0 : (float) (Math.sin(omega * Config.TIME_STEP) * omega / Math.pow(k, 2));
+                for (int i = fromDepth; i <= toDepth; i++) {
+                    float qPart = qParts[i][coefficientIndex];
+                    float hPart = hParts[i][coefficientIndex];
 
                     newSurfaceQX[i][y][realX] = qPart * surfaceQX[y][realX] - hPart * realShiftedDX;
                     newSurfaceQX[i][y][imX] = qPart * surfaceQX[y][imX] - hPart * imShiftedDX;
@@ -93,53 +317,208 @@ public class AiryWaveComputer {
                     newSurfaceQY[i][y][imX] = qPart * surfaceQY[y][imX] - hPart * imShiftedDY;
                 }
             }
-        }
+        });
 
-        // invert fft for all heights
-        for (int i = 0; i < 4; i++) {
-            fft.complexInverse(newSurfaceQX[i], true);
-            fft.complexInverse(newSurfaceQY[i], true);
-        }
+        // invert fft for all heights, the transforms are independent so run them side by side
+        int transforms = toDepth - fromDepth + 1;
+        parallel.forEach(0, transforms * 2 - 1, t -> {
+            int depth = fromDepth + t / 2;
 
-        var newSurface = new Grid();
+            if (t % 2 == 0)
+                ffts[t].complexInverse(newSurfaceQX[depth], true);
+            else
+                ffts[t].complexInverse(newSurfaceQY[depth], true);
+        });
 
-        // interpolate to correct height
-        for (int y = 1; y <= HEIGHT; y++) {
-            int yIndex = y - 1;
+        // interpolate to correct height, the real parts are every second value
+        parallel.forEachRow(1, height, y -> interpolateRow(grid, newSurface, originX, originY, y, 2));
+    }
 
-            for (int x = 1; x <= WIDTH; x++) {
-                int fftIndex = (x - 1) * 2;
+    // the same propagation with real to complex transforms. the rows of h, qx and qy are transformed together, then
+    // every column is transformed, propagated for all depths and transformed back in one go on its chunk's scratch,
+    // and the inverse row transforms run right before the interpolation of their row
+    private void propagateHalfSpectrum(Grid grid, Grid surface, Grid prevSurface, Grid newSurface,
+                                       int originX, int originY, int fromDepth, int toDepth) {
+        parallel.forEachRow(1, height, y -> {
+            float[] rowH = surfaceH[y - 1];
+            float[] rowQX = surfaceQX[y - 1];
+            float[] rowQY = surfaceQY[y - 1];
 
-                int heightBelow = 0;
-                int heightAbove = 3;
+            for (int x = 1; x <= width; x++) {
+                int i = surface.index(originX + x, originY + y);
 
-                float curH = grid.getCell(x, 1).h;
+                rowH[x - 1] = (surface.h[i] + prevSurface.h[i]) / 2;
+                rowQX[x - 1] = surface.qx[i];
+                rowQY[x - 1] = surface.qy[i];
+            }
 
-                // tighten bounds
-                for (int i = 0; i < 4; i++) {
-                    if (heights[i] <= curH)
-                        heightBelow = i;
-                }
-                for (int i = 3; i >= 0; i--) {
-                    if (heights[i] > curH)
-                        heightAbove = i;
+            realForwardRow(rowH);
+            realForwardRow(rowQX);
+            realForwardRow(rowQY);
+        });
+
+        int chunks = columnScratch.length;
+        parallel.forEach(0, chunks - 1, chunk -> {
+            float[][] scratch = columnScratch[chunk];
+            float[] shiftedDX = scratch[0];
+            float[] shiftedDY = scratch[1];
+            float[] columnQX = scratch[2];
+            float[] columnQY = scratch[3];
+            float[] propagatedQX = scratch[4];
+            float[] propagatedQY = scratch[5];
+
+            for (int x = chunk * bins / chunks; x < (chunk + 1) * bins / chunks; x++) {
+                getColumn(surfaceH, x, shiftedDX);
+                getColumn(surfaceQX, x, columnQX);
+                getColumn(surfaceQY, x, columnQY);
+                columnFft.complexForward(shiftedDX);
+                columnFft.complexForward(columnQX);
+                columnFft.complexForward(columnQY);
+
+                float kX = kXs[x];
+                float shiftRealX = shiftRealXs[x];
+                float shiftImX = shiftImXs[x];
+
+                for (int y = 0; y < height; y++) {
+                    int realY = y * 2;
+                    int imY = realY + 1;
+
+                    float kY = kYs[y];
+                    float realH = shiftedDX[realY];
+                    float imH = shiftedDX[imY];
+
+                    // compute derivative
+                    float realDX = -kX * imH;
+                    float imDX = kX * realH;
+                    float realDY = -kY * imH;
+                    float imDY = kY * realH;
+
+                    // shift h to q position
+                    float shiftRealY = shiftRealYs[y];
+                    float shiftImY = shiftImYs[y];
+
+                    shiftedDX[realY] = realDX * shiftRealX - imDX * shiftImX;
+                    shiftedDX[imY] = realDX * shiftImX + imDX * shiftRealX;
+                    shiftedDY[realY] = realDY * shiftRealY - imDY * shiftImY;
+                    shiftedDY[imY] = realDY * shiftImY + imDY * shiftRealY;
                 }
 
-                Cell cell = newSurface.getCell(x, y);
+                for (int i = fromDepth; i <= toDepth; i++) {
+                    float[] depthQParts = qParts[i];
+                    float[] depthHParts = hParts[i];
 
-                float w = heightBelow == heightAbove ? 0
-                        : (curH - heights[heightBelow]) / (heights[heightAbove] - heights[heightBelow]);
+                    for (int y = 0; y < height; y++) {
+                        int realY = y * 2;
+                        int imY = realY + 1;
+                        int coefficientIndex = y * width + x;
 
-                float qXBelow = newSurfaceQX[heightBelow][yIndex][fftIndex];
-                float qXAbove = newSurfaceQX[heightAbove][yIndex][fftIndex];
-                cell.qx = lerp(qXBelow, qXAbove, w);
+                        float qPart = depthQParts[coefficientIndex];
+                        float hPart = depthHParts[coefficientIndex];
 
-                float qYBelow = newSurfaceQY[heightBelow][yIndex][fftIndex];
-                float qYAbove = newSurfaceQY[heightAbove][yIndex][fftIndex];
-                cell.qy = lerp(qYBelow, qYAbove, w);
+                        propagatedQX[realY] = qPart * columnQX[realY] - hPart * shiftedDX[realY];
+                        propagatedQX[imY] = qPart * columnQX[imY] - hPart * shiftedDX[imY];
+                        propagatedQY[realY] = qPart * columnQY[realY] - hPart * shiftedDY[realY];
+                        propagatedQY[imY] = qPart * columnQY[imY] - hPart * shiftedDY[imY];
+                    }
+
+                    columnFft.complexInverse(propagatedQX, true);
+                    columnFft.complexInverse(propagatedQY, true);
+                    setColumn(newSurfaceQX[i], x, propagatedQX);
+                    setColumn(newSurfaceQY[i], x, propagatedQY);
+                }
             }
+        });
+
+        parallel.forEachRow(1, height, y -> {
+            for (int i = fromDepth; i <= toDepth; i++) {
+                realInverseRow(newSurfaceQX[i][y - 1]);
+                realInverseRow(newSurfaceQY[i][y - 1]);
+            }
+
+            interpolateRow(grid, newSurface, originX, originY, y, 1);
+        });
+    }
+
+    // realForward packs the real last wave number into slot 1, it is moved behind the others so the row holds bins
+    // complex values. the imaginary parts of wave number 0 and, for even widths, of width / 2 are zero
+    private void realForwardRow(float[] row) {
+        rowFft.realForward(row);
+
+        row[width] = row[1];
+        row[1] = 0;
+        if (width % 2 == 0)
+            row[width + 1] = 0;
+    }
+
+    // the reverse packing, the imaginary parts dropped here are the ones the real part of a complex inverse ignores
+    private void realInverseRow(float[] row) {
+        row[1] = row[width];
+        rowFft.realInverse(row, true);
+    }
+
+    private void getColumn(float[][] rows, int x, float[] column) {
+        for (int y = 0; y < height; y++) {
+            column[y * 2] = rows[y][x * 2];
+            column[y * 2 + 1] = rows[y][x * 2 + 1];
+        }
+    }
+
+    private void setColumn(float[][] rows, int x, float[] column) {
+        for (int y = 0; y < height; y++) {
+            rows[y][x * 2] = column[y * 2];
+            rows[y][x * 2 + 1] = column[y * 2 + 1];
+        }
+    }
+
+    // blends the propagated flows of the reference depths around the local depth, the real values of row y are
+    // step apart in the inverse transforms
+    private void interpolateRow(Grid grid, Grid newSurface, int originX, int originY, int y, int step) {
+        int yIndex = y - 1;
+
+        for (int x = 1; x <= width; x++) {
+            int fftIndex = (x - 1) * step;
+
+            float curH = grid.h[grid.index(originX + x, region ? originY + y : 1)];
+
+            int heightBelow = getDepthBelow(curH);
+            int heightAbove = getDepthAbove(curH);
+
+            int i = newSurface.index(originX + x, originY + y);
+
+            float w = heightBelow == heightAbove ? 0
+                    : (curH - heights[heightBelow]) / (heights[heightAbove] - heights[heightBelow]);
+
+            float qXBelow = newSurfaceQX[heightBelow][yIndex][fftIndex];
+            float qXAbove = newSurfaceQX[heightAbove][yIndex][fftIndex];
+            newSurface.qx[i] = lerp(qXBelow, qXAbove, w);
+
+            float qYBelow = newSurfaceQY[heightBelow][yIndex][fftIndex];
+            float qYAbove = newSurfaceQY[heightAbove][yIndex][fftIndex];
+            newSurface.qy[i] = lerp(qYBelow, qYAbove, w);
+        }
+    }
+
+    // highest reference depth at or below h, or the lowest one
+    private int getDepthBelow(float h) {
+        int below = 0;
+
+        for (int i = 0; i < depths; i++) {
+            if (heights[i] <= h)
+                below = i;
+        }
+
+        return below;
+    }
+
+    // lowest reference depth above h, or the highest one
+    private int getDepthAbove(float h) {
+        int above = depths - 1;
+
+        for (int i = depths - 1; i >= 0; i--) {
+            if (heights[i] > h)
+                above = i;
         }
 
-        return newSurface;
+        return above;
     }
-}
\ No newline at end of file
+}
@@ -1,154 +1,147 @@
 package org.watersim.algorithm;
 
-import org.apache.commons.lang3.tuple.Pair;
-import org.watersim.grid.Cell;
 import org.watersim.util.Config;
+import org.watersim.util.Parallel;
 import org.watersim.grid.Grid;
 import org.watersim.grid.WallGrid;
 
-import java.util.function.Function;
+public class BulkFlowComputer {
 
-import static org.watersim.util.Config.HEIGHT;
-import static org.watersim.util.Config.WIDTH;
+    private final Parallel parallel;
+    private final int height;
 
-public class BulkFlowComputer {
+    public BulkFlowComputer(Config config) {
+        parallel = config.getParallel();
+        height = config.height;
+    }
 
-    public static float computeUXDerivative(int x, int y, Grid bulk) {
-        Cell curCell = bulk.getCell(x, y);
-        Cell leftCell = bulk.getCell(x - 1, y);
-        Cell rightCell = bulk.getCell(x + 1, y);
-        Cell upCell = bulk.getCell(x, y - 1);
-        Cell downCell = bulk.getCell(x, y + 1);
-        Cell topRightCell = bulk.getCell(x + 1, y - 1);
+    public static float computeUXDerivative(int x, int y, Grid bulk, float upwindH) {
+        int cur = bulk.index(x, y);
+        int left = cur - 1;
+        int right = cur + 1;
+        int up = cur - bulk.stride;
+        int down = cur + bulk.stride;
+        int topRight = up + 1;
 
-        Pair<Float, Float> upwindH = bulk.getUpwindH(x, y);
+        float[] ux = bulk.ux;
+        float[] qy = bulk.qy;
 
         float firstPart = 0;
-        if (upwindH.getLeft() != 0) {
-            float goingRight = (bulk.getAverageQ(x, y).getLeft() / upwindH.getLeft()) * ((curCell.ux - leftCell.ux) / Config.CELL_SIZE);
-            float goingLeft = (bulk.getAverageQ(x + 1, y).getLeft() / upwindH.getLeft()) * ((rightCell.ux - curCell.ux) / Config.CELL_SIZE);
+        if (upwindH != 0) {
+            float goingRight = (bulk.getAverageQX(cur) / upwindH) * ((ux[cur] - ux[left]) / Config.CELL_SIZE);
+            float goingLeft = (bulk.getAverageQX(right) / upwindH) * ((ux[right] - ux[cur]) / Config.CELL_SIZE);
 
-            if (curCell.ux >= 0) {
+            if (ux[cur] >= 0) {
                 firstPart += goingRight;
             }
-            if (curCell.ux <= 0) {
+            if (ux[cur] <= 0) {
                 firstPart += goingLeft;
             }
         }
 
         float secondPart = 0;
-        if (upwindH.getLeft() != 0) {
+        if (upwindH != 0) {
 
-            Function<Float, Float> secondPartAbove = (downFlow) -> (downFlow / upwindH.getLeft()) * ((curCell.ux - upCell.ux) / Config.CELL_SIZE);
+            float gradientAbove = (ux[cur] - ux[up]) / Config.CELL_SIZE;
 
-            if (curCell.ux >= 0 && upCell.qy > 0) {
-                secondPart += secondPartAbove.apply(upCell.qy);
+            if (ux[cur] >= 0 && qy[up] > 0) {
+                secondPart += (qy[up] / upwindH) * gradientAbove;
             }
 
-            if (curCell.ux <= 0 && topRightCell.qy > 0) {
-                secondPart += secondPartAbove.apply(topRightCell.qy);
+            if (ux[cur] <= 0 && qy[topRight] > 0) {
+                secondPart += (qy[topRight] / upwindH) * gradientAbove;
             }
 
-            Function<Float, Float> secondPartBelow = (upFlow) -> ((upFlow / upwindH.getLeft()) * ((downCell.ux - curCell.ux) / Config.CELL_SIZE));
+            float gradientBelow = (ux[down] - ux[cur]) / Config.CELL_SIZE;
 
-            if (curCell.ux >= 0 && curCell.qy < 0) {
-                secondPart += secondPartBelow.apply(curCell.qy);
+            if (ux[cur] >= 0 && qy[cur] < 0) {
+                secondPart += (qy[cur] / upwindH) * gradientBelow;
             }
 
-            if (curCell.ux <= 0 && rightCell.qy < 0) {
-                secondPart += secondPartBelow.apply(rightCell.qy);
+            if (ux[cur] <= 0 && qy[right] < 0) {
+                secondPart += (qy[right] / upwindH) * gradientBelow;
             }
         }
 
-        float thirdPart = Config.GRAVITY * (bulk.getCell(x + 1, y).h - curCell.h) / Config.CELL_SIZE;
+        float thirdPart = Config.GRAVITY * (bulk.h[right] - bulk.h[cur]) / Config.CELL_SIZE;
 
         return -1 * (firstPart + secondPart + thirdPart);
     }
 
-    public static float computeUYDerivative(int x, int y, Grid bulk) {
+    public static float computeUYDerivative(int x, int y, Grid bulk, float upwindH) {
         @SuppressWarnings("DuplicatedCode")
-        Cell curCell = bulk.getCell(x, y);
-        Cell leftCell = bulk.getCell(x - 1, y);
-        Cell rightCell = bulk.getCell(x + 1, y);
-        Cell upCell = bulk.getCell(x, y - 1);
-        Cell downCell = bulk.getCell(x, y + 1);
-        Cell downLeftCell = bulk.getCell(x - 1, y + 1);
+        int cur = bulk.index(x, y);
+        int left = cur - 1;
+        int right = cur + 1;
+        int up = cur - bulk.stride;
+        int down = cur + bulk.stride;
+        int downLeft = down - 1;
 
-        Pair<Float, Float> upwindH = bulk.getUpwindH(x, y);
+        float[] uy = bulk.uy;
+        float[] qx = bulk.qx;
 
         float secondPart = 0;
-        if (upwindH.getRight() != 0) {
-            float goingDown = (bulk.getAverageQ(x, y).getRight() / upwindH.getRight()) * ((curCell.uy - upCell.uy) / Config.CELL_SIZE);
-            float goingUp = (bulk.getAverageQ(x, y + 1).getRight() / upwindH.getRight()) * ((downCell.uy - curCell.uy) / Config.CELL_SIZE);
+        if (upwindH != 0) {
+            float goingDown = (bulk.getAverageQY(cur) / upwindH) * ((uy[cur] - uy[up]) / Config.CELL_SIZE);
+            float goingUp = (bulk.getAverageQY(down) / upwindH) * ((uy[down] - uy[cur]) / Config.CELL_SIZE);
 
-            if (curCell.uy >= 0) {
+            if (uy[cur] >= 0) {
                secondPart += goingDown;
             }
-            if (curCell.uy <= 0) {
+            if (uy[cur] <= 0) {
                secondPart += goingUp;
             }
         }
 
         float firstPart = 0;
-        if (upwindH.getRight() != 0) {
+        if (upwindH != 0) {
 
-            Function<Float, Float> firstLeftPart = (rightFlow) -> ((rightFlow / upwindH.getRight()) * ((curCell.uy - leftCell.uy) / Config.CELL_SIZE));
+            float gradientLeft = (uy[cur] - uy[left]) / Config.CELL_SIZE;
 
-            if (curCell.uy >= 0 && leftCell.qx > 0) {
-                firstPart += firstLeftPart.apply(leftCell.qx);
+            if (uy[cur] >= 0 && qx[left] > 0) {
+                firstPart += (qx[left] / upwindH) * gradientLeft;
             }
-            if (curCell.uy <= 0 && downLeftCell.qx > 0) {
-                firstPart += firstLeftPart.apply(downLeftCell.qx);
+            if (uy[cur] <= 0 && qx[downLeft] > 0) {
+                firstPart += (qx[downLeft] / upwindH) * gradientLeft;
             }
 
-            Function<Float, Float> firstRightPart = (leftFlow) -> ((leftFlow / upwindH.getRight()) * ((rightCell.uy - curCell.uy ) / Config.CELL_SIZE));
+            float gradientRight = (uy[right] - uy[cur]) / Config.CELL_SIZE;
 
-            if (curCell.uy >= 0 && curCell.qx < 0) {
-                firstPart += firstRightPart.apply(curCell.qx);
+            if (uy[cur] >= 0 && qx[cur] < 0) {
+                firstPart += (qx[cur] / upwindH) * gradientRight;
             }
-            if (curCell.uy <= 0 && downCell.qx < 0) {
-                firstPart += firstRightPart.apply(downCell.qx);
+            if (uy[cur] <= 0 && qx[down] < 0) {
+                firstPart += (qx[down] / upwindH) * gradientRight;
             }
         }
 
-        float thirdPart = Config.GRAVITY * (bulk.getCell(x, y + 1).h - curCell.h) / Config.CELL_SIZE;
+        float thirdPart = Config.GRAVITY * (bulk.h[down] - bulk.h[cur]) / Config.CELL_SIZE;
 
         return -1 * (firstPart + secondPart + thirdPart);
     }
 
-    public static Grid computeNewBulkUAndQ(Grid bulk, WallGrid wallGrid) {
-        Grid newBulk = new Grid();
+    // u update, clamp and q update in one pass, a cell only reads the old bulk around it and writes itself
+    public void computeNewBulkUAndQ(Grid bulk, WallGrid wallGrid, Grid newBulk, Workspace workspace, float timeStep) {
+        workspace.activeTiles.forEachSpan(parallel, 1, height, (y, from, to) -> {
+            for (int x = from; x <= to; x++) {
+                int i = newBulk.index(x, y);
 
-        // compute new bulk u values
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
                 // do not compute for walls
                 if (wallGrid.canFlowRight(x, y)) {
-                    newBulk.getCell(x, y).ux = bulk.getCell(x, y).ux + BulkFlowComputer.computeUXDerivative(x, y, bulk) * Config.TIME_STEP;
+                    float upwindHX = bulk.getUpwindHX(i);
+                    float ux = bulk.ux[i] + BulkFlowComputer.computeUXDerivative(x, y, bulk, upwindHX) * timeStep;
+
+                    newBulk.ux[i] = Grid.clampU(ux, timeStep);
+                    newBulk.qx[i] = newBulk.ux[i] * upwindHX;
                 }
                 if (wallGrid.canFlowDown(x, y)) {
-                    newBulk.getCell(x, y).uy = bulk.getCell(x, y).uy + BulkFlowComputer.computeUYDerivative(x, y, bulk) * Config.TIME_STEP;
-                }
-            }
-        }
+                    float upwindHY = bulk.getUpwindHY(i);
+                    float uy = bulk.uy[i] + BulkFlowComputer.computeUYDerivative(x, y, bulk, upwindHY) * timeStep;
 
-        newBulk.clampU();
-
-        // compute q bulk values
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell cell = newBulk.getCell(x, y);
-
-                Pair<Float, Float> upwindH = bulk.getUpwindH(x, y);
-
-                // do not compute for walls
-                if (wallGrid.canFlowRight(x, y))
-                    cell.qx = cell.ux * upwindH.getLeft();
-                if (wallGrid.canFlowDown(x, y))
-                    cell.qy = cell.uy * upwindH.getRight();
+                    newBulk.uy[i] = Grid.clampU(uy, timeStep);
+                    newBulk.qy[i] = newBulk.uy[i] * upwindHY;
+                }
             }
-        }
-
-        return newBulk;
+        });
     }
 }
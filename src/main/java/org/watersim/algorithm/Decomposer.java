@@ -1,144 +1,263 @@
 package org.watersim.algorithm;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
-import org.watersim.grid.Cell;
 import org.watersim.util.Config;
+import org.watersim.util.FloatMath;
+import org.watersim.util.Parallel;
+import org.watersim.util.VectorKernels;
 import org.watersim.grid.Grid;
 import org.watersim.grid.WallGrid;
 
-import static org.watersim.util.Config.HEIGHT;
-import static org.watersim.util.Config.WIDTH;
-
 public class Decomposer {
 
-    public static Pair<Grid, Grid> decomposeBulkOnly(Grid grid) {
-        return new ImmutablePair<>(grid.copy(), new Grid());
+    private static final int ITERATIONS = 128;
+    static final float ITERATION_TIME_STEP = 0.25f;
+
+    private final Config config;
+    private final Parallel parallel;
+    private final int width, height;
+
+    // float exp for the diffusion coefficients when fastMath is set, otherwise null
+    private final FloatMath floatMath;
+
+    public Decomposer(Config config) {
+        this.config = config;
+        parallel = config.getParallel();
+        width = config.width;
+        height = config.height;
+        floatMath = config.fastMath ? new FloatMath(config.fastMathDegree) : null;
+    }
+
+    public void decomposeBulkOnly(Grid grid, Grid bulk, Grid surface) {
+        bulk.copyFrom(grid);
+        surface.clear();
+    }
+
+    public void decomposeSurfaceOnly(Grid grid, Grid bulk, Grid surface) {
+        bulk.clear();
+        surface.copyFrom(grid);
+    }
+
+    public void decompose(Grid grid, WallGrid wallGrid, Grid targetBulk, Grid surface, Workspace workspace) {
+        var bulk = targetBulk;
+        bulk.copyFrom(grid);
+
+        var diffusionCoefficients = workspace.diffusionCoefficients;
+        computeDiffusionCoefficients(grid, wallGrid, diffusionCoefficients);
+
+        float[] coefficientsX = diffusionCoefficients.qx;
+        float[] coefficientsY = diffusionCoefficients.qy;
+
+        var newBulk = workspace.decomposeBuffer;
+        ActiveTiles activeTiles = workspace.activeTiles;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            Grid curBulk = bulk;
+            Grid nextBulk = newBulk;
+
+            if (activeTiles.isAllActive()) {
+                newBulk.copyFrom(bulk);
+                parallel.forEachRow(1, width, y -> diffuseRow(y, 1, height, grid, wallGrid, curBulk, nextBulk,
+                        coefficientsX, coefficientsY));
+            }
+            else {
+                // only h and q diffuse, the other planes of both buffers keep the values of grid
+                activeTiles.forEachSpan(parallel, 1, height, (y, from, to) -> {
+                    int start = curBulk.index(from, y);
+                    int length = to - from + 1;
+
+                    System.arraycopy(curBulk.h, start, nextBulk.h, start, length);
+                    System.arraycopy(curBulk.qx, start, nextBulk.qx, start, length);
+                    System.arraycopy(curBulk.qy, start, nextBulk.qy, start, length);
+                });
+                activeTiles.forEachSpan(parallel, 1, height, (y, from, to) -> diffuseRow(y, from, to, grid, wallGrid,
+                        curBulk, nextBulk, coefficientsX, coefficientsY));
+            }
+
+            var swap = bulk;
+            bulk = newBulk;
+            newBulk = swap;
+        }
+
+        if (bulk != targetBulk)
+            targetBulk.copyFrom(bulk);
+
+        computeSurface(grid, targetBulk, surface, activeTiles);
     }
 
-    public static Pair<Grid, Grid> decomposeSurfaceOnly(Grid grid) {
-        return new ImmutablePair<>(new Grid(), grid.copy());
+    // covers the same diffusion time as the explicit iterations in a single implicit step,
+    // solved to a tolerance and warm started from the bulk of the previous frame when there is one
+    public void decomposeImplicit(Grid grid, WallGrid wallGrid, Grid bulk, Grid surface, Grid prevBulk,
+                                  Workspace workspace) {
+        bulk.copyFrom(grid);
+
+        var diffusionCoefficients = workspace.diffusionCoefficients;
+        computeDiffusionCoefficients(grid, wallGrid, diffusionCoefficients);
+
+        DiffusionSolver solver = workspace.getDiffusionSolver();
+        float timeSpan = ITERATIONS * ITERATION_TIME_STEP / (float) Math.pow(Config.CELL_SIZE, 2);
+
+        for (Grid.DataType type : Grid.DataType.values()) {
+            float[] field = bulk.getPlane(type);
+            float[] guess = prevBulk == null ? null : prevBulk.getPlane(type);
+
+            parallel.forEachRow(0, height, y -> {
+                for (int x = 0; x <= width; x++) {
+                    setUpImplicitCell(x, y, type, grid, wallGrid, diffusionCoefficients, solver);
+
+                    // warm start unknown cells from the previous bulk
+                    int i = grid.index(x, y);
+                    if (guess != null && solver.unknown[i])
+                        field[i] = guess[i];
+                }
+            });
+            solver.computeDiagonal(timeSpan);
+
+            solver.solve(field, grid.getPlane(type), timeSpan);
+        }
+
+        computeSurface(grid, bulk, surface, workspace.activeTiles);
     }
 
-    public static Pair<Grid, Grid> decompose(Grid grid, WallGrid wallGrid) {
-        var surface = new Grid();
-        var bulk = grid.copy();
+    private void setUpImplicitCell(int x, int y, Grid.DataType type, Grid grid, WallGrid wallGrid,
+                                   Grid diffusionCoefficients, DiffusionSolver solver) {
+        int cur = grid.index(x, y);
+        int right = cur + 1;
+        int down = cur + grid.stride;
 
-        var diffusionCoefficients = new Grid();
+        float[] coefficientsX = diffusionCoefficients.qx;
+        float[] coefficientsY = diffusionCoefficients.qy;
 
-        for (int y = 0; y <= WIDTH; y++) {
-            for (int x = 0; x <= HEIGHT; x++) {
-                Cell curCell = grid.getCell(x, y);
-                Cell rightCell = grid.getCell(x + 1, y);
-                Cell downCell = grid.getCell(x, y + 1);
-                Cell curCoefficient = diffusionCoefficients.getCell(x, y);
+        boolean canFlowRight = wallGrid.canFlowRight(x, y);
+        boolean canFlowDown = wallGrid.canFlowDown(x, y);
+        boolean active = x > 0 && y > 0 && grid.h[cur] != 0 && wallGrid.h[cur] >= 0;
+
+        // face weights match the explicit diffusion stencil, so both solve the same equation
+        switch (type) {
+            case H -> {
+                solver.weightsX[cur] = canFlowRight ? coefficientsX[cur] : 0;
+                solver.weightsY[cur] = canFlowDown ? coefficientsY[cur] : 0;
+                solver.unknown[cur] = active;
+            }
+            case QX -> {
+                solver.weightsX[cur] = canFlowRight ? (coefficientsX[right] + coefficientsX[cur]) / 2 : 0;
+                solver.weightsY[cur] = 0;
+                solver.unknown[cur] = active && canFlowRight;
+            }
+            case QY -> {
+                solver.weightsX[cur] = 0;
+                solver.weightsY[cur] = canFlowDown ? (coefficientsY[down] + coefficientsY[cur]) / 2 : 0;
+                solver.unknown[cur] = active && canFlowDown;
+            }
+        }
+    }
+
+    private void computeDiffusionCoefficients(Grid grid, WallGrid wallGrid, Grid diffusionCoefficients) {
+        parallel.forEachRow(0, width, y -> {
+            for (int x = 0; x <= height; x++) {
+                int cur = grid.index(x, y);
+                int right = cur + 1;
+                int down = cur + grid.stride;
 
                 boolean canFlowRight = wallGrid.canFlowRight(x, y);
                 boolean canFlowDown = wallGrid.canFlowDown(x, y);
 
                 if (canFlowRight)
-                    curCoefficient.qx = getDiffusionCoefficient(curCell.h, rightCell.h);
-                else if (curCell.h > 0)
-                    curCoefficient.qx = getDiffusionCoefficient(curCell.h, curCell.h);
+                    diffusionCoefficients.qx[cur] = getDiffusionCoefficient(grid.h[cur], grid.h[right]);
+                else if (grid.h[cur] > 0)
+                    diffusionCoefficients.qx[cur] = getDiffusionCoefficient(grid.h[cur], grid.h[cur]);
                 else
-                    curCoefficient.qx = getDiffusionCoefficient(rightCell.h, rightCell.h);
+                    diffusionCoefficients.qx[cur] = getDiffusionCoefficient(grid.h[right], grid.h[right]);
 
                 if (canFlowDown)
-                    curCoefficient.qy = getDiffusionCoefficient(curCell.h, downCell.h);
-                else if (curCell.h > 0)
-                    curCoefficient.qy = getDiffusionCoefficient(curCell.h, curCell.h);
+                    diffusionCoefficients.qy[cur] = getDiffusionCoefficient(grid.h[cur], grid.h[down]);
+                else if (grid.h[cur] > 0)
+                    diffusionCoefficients.qy[cur] = getDiffusionCoefficient(grid.h[cur], grid.h[cur]);
                 else
-                    curCoefficient.qy = getDiffusionCoefficient(downCell.h, downCell.h);
+                    diffusionCoefficients.qy[cur] = getDiffusionCoefficient(grid.h[down], grid.h[down]);
             }
-        }
+        });
+    }
 
-        for (int i = 0; i < 128; i++) {
-            var newBulk = bulk.copy();
-
-            for (int y = 1; y <= WIDTH; y++) {
-                for (int x = 1; x <= HEIGHT; x++) {
-                    if (grid.getCell(x, y).h == 0 || wallGrid.getCell(x, y).h < 0)
-                        continue;
-
-                    @SuppressWarnings("DuplicatedCode")
-                    Cell curCell = bulk.getCell(x, y);
-                    Cell leftCell = bulk.getCell(x - 1, y);
-                    Cell rightCell = bulk.getCell(x + 1, y);
-                    Cell upCell = bulk.getCell(x, y - 1);
-                    Cell downCell = bulk.getCell(x, y + 1);
-
-                    boolean canFlowLeft = wallGrid.canFlowLeft(x, y);
-                    boolean canFlowRight = wallGrid.canFlowRight(x, y);
-                    boolean canFlowUp = wallGrid.canFlowUp(x, y);
-                    boolean canFlowDown = wallGrid.canFlowDown(x, y);
-
-                    @SuppressWarnings("DuplicatedCode")
-                    Cell curCoefficient = diffusionCoefficients.getCell(x, y);
-                    Cell leftCoefficient = diffusionCoefficients.getCell(x - 1, y);
-                    Cell rightCoefficient = diffusionCoefficients.getCell(x + 1, y);
-                    Cell upCoefficient = diffusionCoefficients.getCell(x, y - 1);
-                    Cell downCoefficient = diffusionCoefficients.getCell(x, y + 1);
-
-                    // 0: h, 1: qx, 2: qy
-                    float[] leftDiff = new float[3];
-                    float[] rightDiff = new float[3];
-                    float[] upDiff = new float[3];
-                    float[] downDiff = new float[3];
-
-                    if (canFlowLeft) {
-                        leftDiff[0] = (leftCell.h - curCell.h) * leftCoefficient.qx;
-                        leftDiff[1] = (leftCell.qx - curCell.qx) * (leftCoefficient.qx + curCoefficient.qx) / 2;
-                        // leftDiff[2] = (leftCell.qy - curCell.qy) * (leftCoefficient.qy + curCoefficient.qy) / 2;
-                    }
-                    if (canFlowRight) {
-                        rightDiff[0] = (rightCell.h - curCell.h) * curCoefficient.qx;
-                        rightDiff[1] = (rightCell.qx - curCell.qx) * (rightCoefficient.qx + curCoefficient.qx) / 2;
-                        // rightDiff[2] = (rightCell.qy - curCell.qy) * (rightCoefficient.qy + curCoefficient.qy) / 2;
-                    }
-                    if (canFlowUp) {
-                        upDiff[0] = (upCell.h - curCell.h) * upCoefficient.qy;
-                        // upDiff[1] = (upCell.qx - curCell.qx) * (upCoefficient.qx + curCoefficient.qx) / 2;
-                        upDiff[2] = (upCell.qy - curCell.qy) * (upCoefficient.qy + curCoefficient.qy) / 2;
-                    }
-                    if (canFlowDown) {
-                        downDiff[0] = (downCell.h - curCell.h) * curCoefficient.qy;
-                        // downDiff[1] = (downCell.qx - curCell.qx) * (downCoefficient.qx + curCoefficient.qx) / 2;
-                        downDiff[2] = (downCell.qy - curCell.qy) * (downCoefficient.qy + curCoefficient.qy) / 2;
-                    }
-
-                    float cellSizeSquared = (float) Math.pow(Config.CELL_SIZE, 2);
-                    float timeStep = 0.25f;
-
-                    float[] changes = new float[3];
-                    for (int j = 0; j < 3; j++) {
-                        changes[j] = timeStep * ((leftDiff[j] + rightDiff[j] + upDiff[j] + downDiff[j]) / cellSizeSquared);
-                    }
-
-                    Cell newCell = newBulk.getCell(x, y);
-                    newCell.h += changes[0];
-                    newCell.qx += wallGrid.canFlowRight(x, y) ? changes[1] : 0;
-                    newCell.qy += wallGrid.canFlowDown(x, y) ? changes[2] : 0;
-                }
+    private void computeSurface(Grid grid, Grid bulk, Grid surface, ActiveTiles activeTiles) {
+        activeTiles.forEachSpan(parallel, 1, height, (y, from, to) -> {
+            for (int x = from; x <= to; x++) {
+                int i = grid.index(x, y);
+
+                surface.h[i] = grid.h[i] - bulk.h[i];
+                surface.qx[i] = grid.qx[i] - bulk.qx[i];
+                surface.qy[i] = grid.qy[i] - bulk.qy[i];
             }
+        });
+    }
 
-            bulk = newBulk;
-        }
+    // one explicit diffusion iteration from bulk into newBulk for the cells [from, to] of row y
+    void diffuseRow(int y, int from, int to, Grid grid, WallGrid wallGrid, Grid bulk, Grid newBulk,
+                    float[] coefficientsX, float[] coefficientsY) {
+        if (config.vectorize)
+            from = VectorKernels.diffuseRow(y, from, to, grid, wallGrid, bulk, newBulk, coefficientsX, coefficientsY,
+                    ITERATION_TIME_STEP);
+
+        float cellSizeSquared = (float) Math.pow(Config.CELL_SIZE, 2);
+
+        for (int x = from; x <= to; x++) {
+            int cur = bulk.index(x, y);
+
+            if (grid.h[cur] == 0 || wallGrid.h[cur] < 0)
+                continue;
 
-        for (int x = 1; x <= WIDTH; x++) {
-            for (int y = 1; y <= HEIGHT; y++) {
-                surface.getCell(x, y).h = grid.getCell(x, y).h - bulk.getCell(x, y).h;
-                surface.getCell(x, y).qx = grid.getCell(x, y).qx - bulk.getCell(x, y).qx;
-                surface.getCell(x, y).qy = grid.getCell(x, y).qy - bulk.getCell(x, y).qy;
+            @SuppressWarnings("DuplicatedCode")
+            int left = cur - 1;
+            int right = cur + 1;
+            int up = cur - bulk.stride;
+            int down = cur + bulk.stride;
+
+            boolean canFlowLeft = wallGrid.canFlowLeft(x, y);
+            boolean canFlowRight = wallGrid.canFlowRight(x, y);
+            boolean canFlowUp = wallGrid.canFlowUp(x, y);
+            boolean canFlowDown = wallGrid.canFlowDown(x, y);
+
+            float leftH = 0, rightH = 0, upH = 0, downH = 0;
+            float leftQX = 0, rightQX = 0;
+            float upQY = 0, downQY = 0;
+
+            if (canFlowLeft) {
+                leftH = (bulk.h[left] - bulk.h[cur]) * coefficientsX[left];
+                leftQX = (bulk.qx[left] - bulk.qx[cur]) * (coefficientsX[left] + coefficientsX[cur]) / 2;
             }
-        }
+            if (canFlowRight) {
+                rightH = (bulk.h[right] - bulk.h[cur]) * coefficientsX[cur];
+                rightQX = (bulk.qx[right] - bulk.qx[cur]) * (coefficientsX[right] + coefficientsX[cur]) / 2;
+            }
+            if (canFlowUp) {
+                upH = (bulk.h[up] - bulk.h[cur]) * coefficientsY[up];
+                upQY = (bulk.qy[up] - bulk.qy[cur]) * (coefficientsY[up] + coefficientsY[cur]) / 2;
+            }
+            if (canFlowDown) {
+                downH = (bulk.h[down] - bulk.h[cur]) * coefficientsY[cur];
+                downQY = (bulk.qy[down] - bulk.qy[cur]) * (coefficientsY[down] + coefficientsY[cur]) / 2;
+            }
+
+            float timeStep = ITERATION_TIME_STEP;
 
-        return new ImmutablePair<>(bulk, surface);
+            // qx only diffuses along x and qy only along y, the zero terms of the other direction are still added
+            // so the sums round like the full stencil
+            float dh = timeStep * ((leftH + rightH + upH + downH) / cellSizeSquared);
+            float dqx = timeStep * ((leftQX + rightQX + 0f + 0f) / cellSizeSquared);
+            float dqy = timeStep * ((0f + 0f + upQY + downQY) / cellSizeSquared);
+
+            newBulk.h[cur] += dh;
+            newBulk.qx[cur] += canFlowRight ? dqx : 0;
+            newBulk.qy[cur] += canFlowDown ? dqy : 0;
+        }
     }
 
-    private static float getDiffusionCoefficient(float curH, float otherH) {
+    float getDiffusionCoefficient(float curH, float otherH) {
         float averageH = (curH + otherH) / 2;
         float gradient = otherH - curH;
 
+        if (floatMath != null)
+            return Math.min(averageH * averageH / 64 * floatMath.exp(-1f / 100 * (gradient * gradient)), 1);
+
         float diffusionCoefficient = (float) ((Math.pow(averageH, 2) / 64) * Math.exp(-1f / 100 * Math.pow(gradient, 2)));
         diffusionCoefficient = Math.min(diffusionCoefficient, 1);
 
@@ -0,0 +1,189 @@
+package org.watersim.algorithm;
+
+import org.watersim.util.Config;
+import org.watersim.util.Parallel;
+
+// preconditioned conjugate gradient solve of one backward euler diffusion step
+public class DiffusionSolver {
+
+    private final Config config;
+    private final Parallel parallel;
+    private final int width, height;
+    private final int stride;
+
+    // face weights to the right and below each cell, and the operator diagonal (0 marks a fixed cell)
+    final float[] weightsX;
+    final float[] weightsY;
+    final float[] diagonal;
+    final boolean[] unknown;
+
+    private final float[] residual;
+    private final float[] preconditioned;
+    private final float[] direction;
+    private final float[] product;
+
+    // per row partial sums, added up in row order so the result does not depend on the thread count
+    private final double[] rowSumsA;
+    private final double[] rowSumsB;
+    private final double[] rowSumsC;
+
+    public DiffusionSolver(Config config, int stride, int size) {
+        this.config = config;
+        parallel = config.getParallel();
+        width = config.width;
+        height = config.height;
+        this.stride = stride;
+
+        weightsX = new float[size];
+        weightsY = new float[size];
+        diagonal = new float[size];
+        unknown = new boolean[size];
+        residual = new float[size];
+        preconditioned = new float[size];
+        direction = new float[size];
+        product = new float[size];
+
+        rowSumsA = new double[height + 2];
+        rowSumsB = new double[height + 2];
+        rowSumsC = new double[height + 2];
+    }
+
+    // fills in the diagonal from the face weights, unknown cells get 1 + timeSpan * sum of their face weights
+    public void computeDiagonal(float timeSpan) {
+        parallel.forEachRow(1, height, y -> {
+            for (int x = 1; x <= width; x++) {
+                int i = y * stride + x;
+
+                diagonal[i] = unknown[i]
+                        ? 1 + timeSpan * (weightsX[i] + weightsX[i - 1] + weightsY[i] + weightsY[i - stride])
+                        : 0;
+            }
+        });
+    }
+
+    // solves (I + timeSpan * L) x = b on the unknown cells, starting from the values already in x,
+    // fixed cells keep their value in x and act as boundary conditions. returns the iterations used
+    public int solve(float[] x, float[] b, float timeSpan) {
+        float[] r = residual;
+        float[] z = preconditioned;
+        float[] p = direction;
+        float[] ap = product;
+
+        parallel.forEachRow(1, height, y -> {
+            double rz = 0;
+            double rr = 0;
+            double bb = 0;
+
+            for (int cx = 1; cx <= width; cx++) {
+                int i = y * stride + cx;
+
+                if (diagonal[i] == 0) {
+                    r[i] = 0;
+                    z[i] = 0;
+                    p[i] = 0;
+                    continue;
+                }
+
+                float res = b[i] - applyOperator(x, i, timeSpan);
+                r[i] = res;
+                z[i] = res / diagonal[i];
+                p[i] = z[i];
+
+                rz += res * z[i];
+                rr += res * res;
+                bb += b[i] * b[i];
+            }
+
+            rowSumsA[y] = rz;
+            rowSumsB[y] = rr;
+            rowSumsC[y] = bb;
+        });
+
+        double rz = sum(rowSumsA);
+        double rr = sum(rowSumsB);
+        double threshold = config.decomposerTolerance * Math.sqrt(sum(rowSumsC));
+
+        int iteration = 0;
+        while (iteration < config.decomposerMaxIterations && Math.sqrt(rr) > threshold) {
+            parallel.forEachRow(1, height, y -> {
+                double pAp = 0;
+
+                for (int cx = 1; cx <= width; cx++) {
+                    int i = y * stride + cx;
+
+                    if (diagonal[i] == 0)
+                        continue;
+
+                    ap[i] = applyOperator(p, i, timeSpan);
+                    pAp += p[i] * ap[i];
+                }
+
+                rowSumsA[y] = pAp;
+            });
+
+            double pAp = sum(rowSumsA);
+            if (pAp <= 0)
+                break;
+
+            float alpha = (float) (rz / pAp);
+
+            parallel.forEachRow(1, height, y -> {
+                double rowRZ = 0;
+                double rowRR = 0;
+
+                for (int cx = 1; cx <= width; cx++) {
+                    int i = y * stride + cx;
+
+                    if (diagonal[i] == 0)
+                        continue;
+
+                    x[i] += alpha * p[i];
+                    r[i] -= alpha * ap[i];
+                    z[i] = r[i] / diagonal[i];
+
+                    rowRZ += r[i] * z[i];
+                    rowRR += r[i] * r[i];
+                }
+
+                rowSumsA[y] = rowRZ;
+                rowSumsB[y] = rowRR;
+            });
+
+            double newRZ = sum(rowSumsA);
+            rr = sum(rowSumsB);
+
+            float beta = (float) (newRZ / rz);
+            rz = newRZ;
+
+            parallel.forEachRow(1, height, y -> {
+                for (int cx = 1; cx <= width; cx++) {
+                    int i = y * stride + cx;
+
+                    if (diagonal[i] != 0)
+                        p[i] = z[i] + beta * p[i];
+                }
+            });
+
+            iteration++;
+        }
+
+        return iteration;
+    }
+
+    private float applyOperator(float[] v, int i, float timeSpan) {
+        float neighbours = weightsX[i] * v[i + 1] + weightsX[i - 1] * v[i - 1]
+                + weightsY[i] * v[i + stride] + weightsY[i - stride] * v[i - stride];
+
+        return diagonal[i] * v[i] - timeSpan * neighbours;
+    }
+
+    private double sum(double[] rowSums) {
+        double total = 0;
+
+        for (int y = 1; y <= height; y++) {
+            total += rowSums[y];
+        }
+
+        return total;
+    }
+}
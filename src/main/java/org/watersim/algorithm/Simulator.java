@@ -2,20 +2,29 @@ package org.watersim.algorithm;
 
 import lombok.Getter;
 import org.apache.commons.lang3.tuple.Pair;
-import org.watersim.grid.Cell;
 import org.watersim.util.Config;
+import org.watersim.util.Parallel;
+import org.watersim.util.StageTimer;
 import org.watersim.grid.Grid;
 import org.watersim.grid.WallGrid;
+import org.watersim.io.Checkpoint;
+import org.watersim.io.GridSnapshot;
 
 import java.nio.file.Path;
 
-import static org.watersim.util.Config.Airy;
-import static org.watersim.util.Config.HEIGHT;
-import static org.watersim.util.Config.SWE;
-import static org.watersim.util.Config.WIDTH;
-
 public class Simulator {
 
+    private final Config config;
+    private final Parallel parallel;
+    private final int width, height;
+
+    // number of frames computed since the input, restored from checkpoints
+    @Getter
+    private int frame = 0;
+
+    @Getter
+    private final StageTimer timer;
+
     private Grid prevBulk;
     private Grid prevSurface;
 
@@ -24,104 +33,211 @@ public class Simulator {
 
     private final WallGrid wallGrid;
 
-    public Simulator(Path path) {
-        Pair<Grid, WallGrid> input = Grid.parseInput(path);
+    // buffers swapped with the fields above at the end of each frame
+    private Grid bulk;
+    private Grid surface;
+    private Grid newGrid;
+
+    private final Grid newBulk;
+    private final Grid newSurface;
+    private final Grid transportedSurface;
+
+    private final Workspace workspace;
+    private final Decomposer decomposer;
+    private final BulkFlowComputer bulkFlowComputer;
+    private final AiryWaveComputer airyWaveComputer;
+    private final SurfaceTransporter surfaceTransporter;
+
+    public Simulator(Config config, Path path) {
+        this(config, GridSnapshot.isSnapshot(path) ? GridSnapshot.read(config, path) : Grid.parseInput(config, path));
+    }
+
+    public Simulator(Config config, Pair<Grid, WallGrid> input) {
+        this.config = config;
+        parallel = config.getParallel();
+        width = config.width;
+        height = config.height;
+        timer = new StageTimer(config);
 
         grid = input.getLeft();
         wallGrid = input.getRight();
 
-        Pair<Grid, Grid> prevGrids = decomposeGrid();
-        prevBulk = prevGrids.getLeft();
-        prevSurface = prevGrids.getRight();
+        prevBulk = new Grid(config);
+        prevSurface = new Grid(config);
+        bulk = new Grid(config);
+        surface = new Grid(config);
+        newGrid = new Grid(config);
+        newBulk = new Grid(config);
+        newSurface = new Grid(config);
+        transportedSurface = new Grid(config);
+        workspace = new Workspace(config);
+        decomposer = new Decomposer(config);
+        bulkFlowComputer = new BulkFlowComputer(config);
+        airyWaveComputer = new AiryWaveComputer(config);
+        surfaceTransporter = new SurfaceTransporter(config);
+
+        workspace.activeTiles.update(grid);
+        decomposeGrid(prevBulk, prevSurface, null);
 
         if (Config.CELL_SIZE != 1)
             throw new RuntimeException();
     }
 
-    private Pair<Grid, Grid> decomposeGrid() {
-        if (SWE && Airy)
-            return Decomposer.decompose(grid, wallGrid);
-        else if (SWE)
-            return Decomposer.decomposeBulkOnly(grid);
-        else if (Airy)
-            return Decomposer.decomposeSurfaceOnly(grid);
+    // the state the next makeNewGrid reads, everything else is rebuilt from it every frame
+    public void saveCheckpoint(Path path) {
+        Checkpoint.write(config, path, frame, workspace.activeTiles.getTiles(), grid, prevBulk, prevSurface, wallGrid);
+    }
+
+    // replaces the current state with a checkpoint and continues from the frame it was taken after
+    public void loadCheckpoint(Path path) {
+        boolean[] tiles = new boolean[workspace.activeTiles.getTiles().length];
+        frame = Checkpoint.read(config, path, tiles, grid, prevBulk, prevSurface, wallGrid);
+        wallGrid.updateConnectivity();
+        workspace.activeTiles.restore(tiles);
+    }
+
+    private void decomposeGrid(Grid bulk, Grid surface, Grid prevBulk) {
+        if (config.swe && config.airy && config.decomposer == Config.DecomposerType.IMPLICIT)
+            decomposer.decomposeImplicit(grid, wallGrid, bulk, surface, prevBulk, workspace);
+        else if (config.swe && config.airy)
+            decomposer.decompose(grid, wallGrid, bulk, surface, workspace);
+        else if (config.swe)
+            decomposer.decomposeBulkOnly(grid, bulk, surface);
+        else if (config.airy)
+            decomposer.decomposeSurfaceOnly(grid, bulk, surface);
         else
             throw new RuntimeException();
     }
 
+    // advances one frame, in adaptive mode as several equal sub-steps that each keep the CFL condition
     public Grid makeNewGrid() {
-        Pair<Grid, Grid> grids = decomposeGrid();
+        if (config.adaptiveTimeStep) {
+            int subSteps = computeSubSteps();
+            for (int i = 0; i < subSteps; i++) {
+                step(config.timeStep / subSteps);
+            }
+        }
+        else {
+            step(config.timeStep);
+        }
+
+        frame++;
+
+        return grid;
+    }
+
+    // sub-steps per frame so that the fastest bulk velocity plus the shallow water wave speed moves at most
+    // cflNumber cells per sub-step, whole steps keep frames at the configured fps
+    private int computeSubSteps() {
+        float waveSpeed = (float) Math.sqrt(Config.GRAVITY * Math.max(grid.maxHeight(), 0));
+        float speed = prevBulk.maxSpeed() + waveSpeed;
+
+        int subSteps = (int) Math.ceil(speed * config.timeStep / (config.cflNumber * Config.CELL_SIZE));
+
+        return Math.clamp(subSteps, 1, config.maxSubSteps);
+    }
 
-        Grid bulk = grids.getLeft();
-        Grid surface = grids.getRight();
+    private void step(float timeStep) {
+        ActiveTiles activeTiles = workspace.activeTiles;
+        activeTiles.update(grid);
+
+        decomposeGrid(bulk, surface, prevBulk);
+        timer.lap(StageTimer.Stage.DECOMPOSE);
 
         // compute u velocities
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell bulkCell = bulk.getCell(x, y);
-                Pair<Float, Float> upwindH = prevBulk.getUpwindH(x, y);
+        activeTiles.forEachSpan(parallel, 1, height, (y, from, to) -> {
+            for (int x = from; x <= to; x++) {
+                int i = bulk.index(x, y);
 
                 // do not compute for walls
-                if (wallGrid.canFlowRight(x, y))
-                    bulkCell.ux = upwindH.getLeft() == 0 ? 0 : bulkCell.qx / upwindH.getLeft();
-                if (wallGrid.canFlowDown(x, y))
-                    bulkCell.uy = upwindH.getRight() == 0 ? 0 : bulkCell.qy / upwindH.getRight();
+                if (wallGrid.canFlowRight(x, y)) {
+                    float upwindHX = prevBulk.getUpwindHX(i);
+                    bulk.ux[i] = upwindHX == 0 ? 0 : bulk.qx[i] / upwindHX;
+                }
+                if (wallGrid.canFlowDown(x, y)) {
+                    float upwindHY = prevBulk.getUpwindHY(i);
+                    bulk.uy[i] = upwindHY == 0 ? 0 : bulk.qy[i] / upwindHY;
+                }
             }
-        }
+        });
+        timer.lap(StageTimer.Stage.VELOCITY);
 
         // Compute surface and bulk components
-        Grid newBulk = BulkFlowComputer.computeNewBulkUAndQ(bulk, wallGrid);
-        Grid newSurface = AiryWaveComputer.computeSurfaceQ(grid, surface, prevSurface, wallGrid);
+        bulkFlowComputer.computeNewBulkUAndQ(bulk, wallGrid, newBulk, workspace, timeStep);
+        timer.lap(StageTimer.Stage.BULK_FLOW);
+        airyWaveComputer.computeSurfaceQ(grid, surface, prevSurface, wallGrid, newSurface, timeStep);
+        timer.lap(StageTimer.Stage.AIRY);
 
         // Transport surface through bulk flow
-        Grid transportedSurface = SurfaceTransporter.transportSurface(surface, newSurface, bulk, newBulk, wallGrid);
-
-        Grid newGrid = new Grid();
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell newCell = newGrid.getCell(x, y);
-                Cell newBulkCell = newBulk.getCell(x, y);
-                Cell transportedCell = transportedSurface.getCell(x, y);
-                newCell.qx = wallGrid.canFlowRight(x, y)
-                        ? newBulkCell.qx + transportedCell.qx
-                        : 0;
-                newCell.qy = wallGrid.canFlowDown(x, y)
-                        ? newBulkCell.qy + transportedCell.qy
-                        : 0;
-            }
-        }
-        newGrid.clampQ(grid.computeUpwindH());
-
-        // Compute new divergence for height update
-        Grid tempGrid = new Grid();
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell tempCell = tempGrid.getCell(x, y);
-                Cell newCell = newGrid.getCell(x, y);
-                Cell transportedCell = transportedSurface.getCell(x, y);
-                Cell newBulkCell = newBulk.getCell(x, y);
-
-                tempCell.qx = newCell.qx + transportedCell.h * newBulkCell.ux;
-                tempCell.qy = newCell.qy + transportedCell.h * newBulkCell.uy;
-            }
-        }
-        tempGrid.computeDivergence();
+        surfaceTransporter.transportSurface(surface, newSurface, bulk, newBulk, wallGrid, transportedSurface,
+                workspace, timeStep);
+        timer.lap(StageTimer.Stage.TRANSPORT);
+
+        // recombine the flows and update heights with their divergence in one pass. besides its own flows a cell
+        // needs the total flows through its left and top faces, the left one is carried along the row and the top
+        // one recomputed, so rows stay independent and nothing in between is stored
+        activeTiles.forEachSpan(parallel, 1, height, (y, from, to) -> {
+            float leftFlowX = from > 1 ? getTotalQX(from - 1, y, timeStep) : 0;
 
-        // update heights with flow divergence
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell curCell = grid.getCell(x, y);
-                Cell newCell = newGrid.getCell(x, y);
-                Cell tempCell = tempGrid.getCell(x, y);
+            for (int x = from; x <= to; x++) {
+                int i = newGrid.index(x, y);
 
-                newCell.h = curCell.h - Config.TIME_STEP * tempCell.divQ;
+                float qx = recombineQX(x, y, i, timeStep);
+                float qy = recombineQY(x, y, i, timeStep);
+                newGrid.qx[i] = qx;
+                newGrid.qy[i] = qy;
+
+                float flowX = qx + transportedSurface.h[i] * newBulk.ux[i];
+                float flowY = qy + transportedSurface.h[i] * newBulk.uy[i];
+                float upFlowY = y > 1 ? getTotalQY(x, y - 1, timeStep) : 0;
+
+                float divQ = (flowX - leftFlowX) / Config.CELL_SIZE + (flowY - upFlowY) / Config.CELL_SIZE;
+                newGrid.h[i] = grid.h[i] - timeStep * divQ;
+
+                leftFlowX = flowX;
             }
-        }
+        });
+
+        timer.lap(StageTimer.Stage.HEIGHT_UPDATE);
 
+        Grid swap = prevBulk;
         prevBulk = bulk;
+        bulk = swap;
+
+        swap = prevSurface;
         prevSurface = surface;
+        surface = swap;
+
+        swap = grid;
         grid = newGrid;
+        newGrid = swap;
+    }
 
-        return grid;
+    // new flow through the right face, bulk plus transported surface clamped by the upwind height of the grid
+    private float recombineQX(int x, int y, int i, float timeStep) {
+        if (!wallGrid.canFlowRight(x, y))
+            return 0;
+
+        return Grid.clampQ(newBulk.qx[i] + transportedSurface.qx[i], grid.getUpwindHX(i), timeStep);
+    }
+
+    private float recombineQY(int x, int y, int i, float timeStep) {
+        if (!wallGrid.canFlowDown(x, y))
+            return 0;
+
+        return Grid.clampQ(newBulk.qy[i] + transportedSurface.qy[i], grid.getUpwindHY(i), timeStep);
+    }
+
+    // recombined flow plus the transported surface height carried by the bulk, what moves the height
+    private float getTotalQX(int x, int y, float timeStep) {
+        int i = grid.index(x, y);
+
+        return recombineQX(x, y, i, timeStep) + transportedSurface.h[i] * newBulk.ux[i];
+    }
+
+    private float getTotalQY(int x, int y, float timeStep) {
+        int i = grid.index(x, y);
+
+        return recombineQY(x, y, i, timeStep) + transportedSurface.h[i] * newBulk.uy[i];
     }
 }
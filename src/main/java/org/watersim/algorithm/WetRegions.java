@@ -0,0 +1,215 @@
+package org.watersim.algorithm;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+import org.watersim.util.Parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// the wet parts of the grid as disjoint rectangles for the spectral solve. connected groups of tiles with water are
+// boxed and grown by a margin of dry cells, so the periodic transform of a region wraps through dry land instead of
+// into the water on the other side of the map. sizes are padded to 2^a 3^b 5^c, which the transforms handle with
+// their fast radix kernels, and regions whose padded rectangles overlap are merged
+class WetRegions {
+
+    static final int TILE_SIZE = 8;
+
+    // water a cell needs to count as wet. thinner films are what spills into the dry margins, counting them let the
+    // regions creep outwards every frame until they covered the grid
+    static final float WET_DEPTH = 1e-3f;
+
+    private static final int[] FACTORS = {2, 3, 5};
+
+    private final Parallel parallel;
+    private final int width, height;
+    private final int margin;
+    private final int tilesX, tilesY;
+
+    private final boolean[] wet;
+    private final boolean[] visited;
+    private final int[] stack;
+
+    // wet tile groups as first and last cell x and y, inclusive
+    private final List<int[]> boxes = new ArrayList<>();
+    // x and y of the first cell, width and height of every region
+    private final List<int[]> regions = new ArrayList<>();
+    private boolean coversGrid;
+
+    WetRegions(Config config) {
+        parallel = config.getParallel();
+        width = config.width;
+        height = config.height;
+        margin = config.airyRegionMargin;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+        wet = new boolean[tilesX * tilesY];
+        visited = new boolean[tilesX * tilesY];
+        stack = new int[tilesX * tilesY];
+    }
+
+    // true when the regions are not clearly smaller than the grid, the grid is solved as a whole then. padded sizes
+    // cost more per cell than the power of two grids, so regions need to stay below three quarters of its area
+    boolean coversGrid() {
+        return coversGrid;
+    }
+
+    List<int[]> getRegions() {
+        return regions;
+    }
+
+    void update(Grid grid) {
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                wet[ty * tilesX + tx] = isWet(grid, tx, ty);
+                visited[ty * tilesX + tx] = false;
+            }
+        }
+
+        boxes.clear();
+        for (int tile = 0; tile < wet.length; tile++) {
+            if (wet[tile] && !visited[tile])
+                boxes.add(findBox(tile));
+        }
+
+        // merge boxes until their padded rectangles are disjoint
+        regions.clear();
+        for (int[] box : boxes) {
+            regions.add(pad(box));
+        }
+
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+
+            for (int a = 0; a < regions.size() && !merged; a++) {
+                for (int b = a + 1; b < regions.size() && !merged; b++) {
+                    if (!overlap(regions.get(a), regions.get(b)))
+                        continue;
+
+                    int[] boxA = boxes.get(a);
+                    int[] boxB = boxes.remove(b);
+                    regions.remove(b);
+
+                    boxA[0] = Math.min(boxA[0], boxB[0]);
+                    boxA[1] = Math.min(boxA[1], boxB[1]);
+                    boxA[2] = Math.max(boxA[2], boxB[2]);
+                    boxA[3] = Math.max(boxA[3], boxB[3]);
+                    regions.set(a, pad(boxA));
+                    merged = true;
+                }
+            }
+        }
+
+        long area = 0;
+        for (int[] region : regions) {
+            area += (long) region[2] * region[3];
+        }
+        coversGrid = area * 4 >= (long) width * height * 3;
+    }
+
+    // drops the region flows through faces between two dry cells, the margins only keep what enters or leaves water
+    void keepWetFaces(Grid grid, Grid newSurface) {
+        for (int[] region : regions) {
+            parallel.forEachRow(region[1], region[1] + region[3] - 1, y -> {
+                for (int x = region[0]; x < region[0] + region[2]; x++) {
+                    int i = grid.index(x, y);
+                    if (grid.h[i] > WET_DEPTH)
+                        continue;
+
+                    if (grid.h[i + 1] <= WET_DEPTH)
+                        newSurface.qx[i] = 0;
+                    if (grid.h[i + grid.stride] <= WET_DEPTH)
+                        newSurface.qy[i] = 0;
+                }
+            });
+        }
+    }
+
+    private boolean isWet(Grid grid, int tx, int ty) {
+        int xEnd = Math.min(width, (tx + 1) * TILE_SIZE);
+        int yEnd = Math.min(height, (ty + 1) * TILE_SIZE);
+
+        for (int y = ty * TILE_SIZE + 1; y <= yEnd; y++) {
+            for (int x = tx * TILE_SIZE + 1; x <= xEnd; x++) {
+                int i = grid.index(x, y);
+                if (grid.h[i] > WET_DEPTH)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    // the cell box of the wet tiles connected to start, diagonal neighbours included
+    private int[] findBox(int start) {
+        int minX = tilesX, minY = tilesY, maxX = -1, maxY = -1;
+
+        int size = 0;
+        stack[size++] = start;
+        visited[start] = true;
+
+        while (size > 0) {
+            int tile = stack[--size];
+            int tx = tile % tilesX;
+            int ty = tile / tilesX;
+
+            minX = Math.min(minX, tx);
+            minY = Math.min(minY, ty);
+            maxX = Math.max(maxX, tx);
+            maxY = Math.max(maxY, ty);
+
+            for (int ny = Math.max(0, ty - 1); ny <= Math.min(tilesY - 1, ty + 1); ny++) {
+                for (int nx = Math.max(0, tx - 1); nx <= Math.min(tilesX - 1, tx + 1); nx++) {
+                    int neighbour = ny * tilesX + nx;
+                    if (!wet[neighbour] || visited[neighbour])
+                        continue;
+
+                    visited[neighbour] = true;
+                    stack[size++] = neighbour;
+                }
+            }
+        }
+
+        return new int[] {
+                minX * TILE_SIZE + 1, minY * TILE_SIZE + 1,
+                Math.min(width, (maxX + 1) * TILE_SIZE), Math.min(height, (maxY + 1) * TILE_SIZE)
+        };
+    }
+
+    // the box grown by the margin and padded to a transform size around its center, kept inside the grid
+    private int[] pad(int[] box) {
+        int grownWidth = box[2] - box[0] + 1 + 2 * margin;
+        int regionWidth = getTransformSize(grownWidth, width);
+        int x = Math.clamp(box[0] - margin - (regionWidth - grownWidth) / 2, 1, width - regionWidth + 1);
+
+        int grownHeight = box[3] - box[1] + 1 + 2 * margin;
+        int regionHeight = getTransformSize(grownHeight, height);
+        int y = Math.clamp(box[1] - margin - (regionHeight - grownHeight) / 2, 1, height - regionHeight + 1);
+
+        return new int[] {x, y, regionWidth, regionHeight};
+    }
+
+    private static boolean overlap(int[] a, int[] b) {
+        return a[0] < b[0] + b[2] && b[0] < a[0] + a[2]
+                && a[1] < b[1] + b[3] && b[1] < a[1] + a[3];
+    }
+
+    // the smallest 2^a 3^b 5^c at or above n, or limit when that is smaller
+    static int getTransformSize(int n, int limit) {
+        for (int size = n; size < limit; size++) {
+            int rest = size;
+            for (int factor : FACTORS) {
+                while (rest % factor == 0) {
+                    rest /= factor;
+                }
+            }
+
+            if (rest == 1)
+                return size;
+        }
+
+        return limit;
+    }
+}
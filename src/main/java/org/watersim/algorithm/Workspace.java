@@ -0,0 +1,41 @@
+package org.watersim.algorithm;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+public class Workspace {
+
+    private final Config config;
+
+    // scratch grids owned by one simulator and reused every frame
+    final Grid decomposeBuffer;
+    final Grid diffusionCoefficients;
+
+    final Grid averageBulk;
+    final Grid dampedSurface;
+
+    // cells the passes visit, every cell unless activeTiles is set
+    final ActiveTiles activeTiles;
+
+    // only allocated when the implicit decomposer is used
+    private DiffusionSolver diffusionSolver;
+
+    Workspace(Config config) {
+        this.config = config;
+
+        decomposeBuffer = new Grid(config);
+        diffusionCoefficients = new Grid(config);
+
+        averageBulk = new Grid(config);
+        dampedSurface = new Grid(config);
+
+        activeTiles = new ActiveTiles(config);
+    }
+
+    DiffusionSolver getDiffusionSolver() {
+        if (diffusionSolver == null)
+            diffusionSolver = new DiffusionSolver(config, decomposeBuffer.stride, decomposeBuffer.h.length);
+
+        return diffusionSolver;
+    }
+}
@@ -3,6 +3,7 @@ package org.watersim.grid;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.watersim.util.Config;
+import org.watersim.util.VectorKernels;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -10,35 +11,60 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
 
-import static org.watersim.util.Config.HEIGHT;
-import static org.watersim.util.Config.WIDTH;
-
 public class Grid {
 
     public enum DataType {
         H, QX, QY
     }
 
-    private Cell[][] cells;
+    public final Config config;
+    public final int width, height;
 
-    public Grid() {
-        cells = new Cell[HEIGHT + 2][WIDTH + 2];
+    // one plane per quantity, (width + 2) * (height + 2) values including the boundary ring
+    public final int stride;
+    public final float[] h;
+    public final float[] qx, qy;
+    public final float[] ux, uy;
+    public final float[] divQ;
+    public final float[] divU;
 
-        for (int x = 0; x <= WIDTH + 1; x++) {
-            for (int y = 0; y <= HEIGHT + 1; y++) {
-                cells[y][x] = new Cell();
-            }
-        }
+    public Grid(Config config) {
+        this(config, false);
+    }
+
+    private Grid(Config config, boolean outputOnly) {
+        this.config = config;
+        width = config.width;
+        height = config.height;
+        stride = width + 2;
+
+        int size = stride * (height + 2);
+        h = new float[size];
+        qx = new float[size];
+        qy = new float[size];
+        ux = outputOnly ? null : new float[size];
+        uy = outputOnly ? null : new float[size];
+        divQ = outputOnly ? null : new float[size];
+        divU = outputOnly ? null : new float[size];
     }
 
-    public Grid(String input) {
+    // only the planes of the DataType quantities, the velocity and divergence planes are null. what the frame
+    // writers read, for copies of frames that wait to be written
+    public static Grid createOutputGrid(Config config) {
+        return new Grid(config, true);
+    }
+
+    public Grid(Config config, String input) {
+        this(config);
         init(input.lines());
     }
 
-    public Grid(Path path) {
+    public Grid(Config config, Path path) {
+        this(config);
         try (var reader = Files.newBufferedReader(path)) {
             init(reader.lines());
         }
@@ -47,12 +73,20 @@ public class Grid {
         }
     }
 
-    public Cell getCell(int x, int y) {
-        return cells[y][x];
+    public int index(int x, int y) {
+        return y * stride + x;
     }
 
-    public void setCell(int x, int y, Cell newCell) {
-        cells[y][x] = newCell;
+    public float[] getPlane(DataType type) {
+        return switch (type) {
+            case H -> h;
+            case QX -> qx;
+            case QY -> qy;
+        };
+    }
+
+    public float[][] getAllPlanes() {
+        return new float[][] { h, qx, qy, ux, uy, divQ, divU };
     }
 
     public void init(Stream<String> input) {
@@ -78,24 +112,20 @@ public class Grid {
             }
         }
 
-        if (WIDTH != heightsList.getFirst().length
-                || HEIGHT != heightsList.size()) {
+        if (width != heightsList.getFirst().length
+                || height != heightsList.size()) {
             throw new RuntimeException();
         }
 
-        cells = new Cell[HEIGHT + 2][WIDTH + 2];
-
-        for (int y = 0; y <= HEIGHT + 1; y++) {
-            for (int x = 0; x <= WIDTH + 1; x++) {
-                cells[y][x] = new Cell();
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                int i = index(x, y);
 
-                if (y > 0 && x > 0 && y <= HEIGHT && x <= WIDTH) {
-                    cells[y][x].h = Float.parseFloat(heightsList.get(y - 1)[x - 1]);
+                h[i] = Float.parseFloat(heightsList.get(y - 1)[x - 1]);
 
-                    if (!velocitiesXList.isEmpty()) {
-                        cells[y][x].qx = Float.parseFloat(velocitiesXList.get(y - 1)[x - 1]);
-                        cells[y][x].qy = Float.parseFloat(velocitiesYList.get(y - 1)[x - 1]);
-                    }
+                if (!velocitiesXList.isEmpty()) {
+                    qx[i] = Float.parseFloat(velocitiesXList.get(y - 1)[x - 1]);
+                    qy[i] = Float.parseFloat(velocitiesYList.get(y - 1)[x - 1]);
                 }
             }
         }
@@ -115,16 +145,11 @@ public class Grid {
 
     public String toString(DataType type) {
         var builder = new StringBuilder();
+        float[] plane = getPlane(type);
 
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell cell = getCell(x, y);
-                builder.append(switch (type) {
-                    case H -> cell.h;
-                    case QX -> cell.qx;
-                    case QY -> cell.qy;
-                    default -> throw new RuntimeException();
-                });
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                builder.append(plane[index(x, y)]);
                 builder.append(" ");
             }
             builder.append("\n");
@@ -151,162 +176,162 @@ public class Grid {
     }
 
     public Grid copy() {
-        Grid newGrid = new Grid();
-
-        for (int x = 0; x <= WIDTH + 1; x++) {
-            for (int y = 0; y <= HEIGHT + 1; y++) {
-                newGrid.setCell(x, y, this.getCell(x, y).copy());
-            }
-        }
+        Grid newGrid = new Grid(config);
+        newGrid.copyFrom(this);
 
         return newGrid;
     }
 
-    public Pair<Float, Float> getUpwindH(int x, int y) {
-        Cell curCell = getCell(x, y);
+    public void copyFrom(Grid other) {
+        System.arraycopy(other.h, 0, h, 0, h.length);
+        System.arraycopy(other.qx, 0, qx, 0, qx.length);
+        System.arraycopy(other.qy, 0, qy, 0, qy.length);
+        System.arraycopy(other.ux, 0, ux, 0, ux.length);
+        System.arraycopy(other.uy, 0, uy, 0, uy.length);
+        System.arraycopy(other.divQ, 0, divQ, 0, divQ.length);
+        System.arraycopy(other.divU, 0, divU, 0, divU.length);
+    }
 
-        float thisH = curCell.h;
-        float xH = getCell(x + 1, y).h;
-        float yH = getCell(x, y + 1).h;
+    public void clear() {
+        Arrays.fill(h, 0);
+        Arrays.fill(qx, 0);
+        Arrays.fill(qy, 0);
+        Arrays.fill(ux, 0);
+        Arrays.fill(uy, 0);
+        Arrays.fill(divQ, 0);
+        Arrays.fill(divU, 0);
+    }
 
-        float upwindXH, upwindYH;
+    public float getUpwindHX(int i) {
+        float thisH = h[i];
+        float xH = h[i + 1];
 
-        float signX = curCell.ux != 0 ? curCell.ux: curCell.qx;
+        float signX = ux[i] != 0 ? ux[i] : qx[i];
         if (signX > 0) {
-            upwindXH = thisH;
+            return thisH;
         } else if (signX < 0) {
-            upwindXH = xH;
+            return xH;
         } else {
-            upwindXH = Math.max(thisH, xH);
+            return Math.max(thisH, xH);
         }
+    }
+
+    public float getUpwindHY(int i) {
+        float thisH = h[i];
+        float yH = h[i + stride];
 
-        float signY = curCell.uy != 0 ? curCell.uy : curCell.qy;
+        float signY = uy[i] != 0 ? uy[i] : qy[i];
         if (signY > 0) {
-            upwindYH = thisH;
+            return thisH;
         } else if (signY < 0) {
-            upwindYH = yH;
+            return yH;
         } else {
-            upwindYH = Math.max(thisH, yH);
+            return Math.max(thisH, yH);
         }
-
-        return new ImmutablePair<>(upwindXH, upwindYH);
     }
 
-    public Pair<Float, Float> getAverageQ(int x, int y) {
-        Cell cell = getCell(x, y);
-        Cell topCell = getCell(x, y - 1);
-        Cell leftCell = getCell(x - 1, y);
-
-        float averageXQ = (leftCell.qx + cell.qx) / 2;
-        float averageYQ = (topCell.qy + cell.qy) / 2;
+    public float getAverageQX(int i) {
+        return (qx[i - 1] + qx[i]) / 2;
+    }
 
-        return new ImmutablePair<>(averageXQ, averageYQ);
+    public float getAverageQY(int i) {
+        return (qy[i - stride] + qy[i]) / 2;
     }
 
     public float totalVolume() {
         float total = 0;
 
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                total += getCell(x, y).h;
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                total += h[index(x, y)];
             }
         }
 
         return total;
     }
 
-    public static Pair<Grid, WallGrid> parseInput(Path path) {
-        StringBuilder water = new StringBuilder();
-        StringBuilder walls = new StringBuilder();
+    public float minHeight() {
+        float min = Float.POSITIVE_INFINITY;
 
-        try (var reader = Files.newBufferedReader(path)) {
-            boolean readingWater = true;
-
-            for (String line : reader.lines().toList()) {
-                if (readingWater) {
-                    if (line.equals("-"))
-                        readingWater = false;
-                    else {
-                        water.append(line);
-                        water.append('\n');
-                    }
-                } else {
-                    walls.append(line);
-                    walls.append('\n');
-                }
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                min = Math.min(min, h[index(x, y)]);
             }
         }
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
 
-        return new ImmutablePair<>(new Grid(water.toString()), new WallGrid(walls.toString()));
+        return min;
     }
 
-    public void computeDivergence() {
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell cell = getCell(x, y);
-                Cell leftCell = getCell(x - 1, y);
-                Cell upCell = getCell(x, y - 1);
-
-                cell.divQ = (cell.qx - leftCell.qx) / Config.CELL_SIZE + (cell.qy - upCell.qy) / Config.CELL_SIZE;
-                cell.divU = (cell.ux - leftCell.ux) / Config.CELL_SIZE + (cell.uy - upCell.uy) / Config.CELL_SIZE;
+    public float maxHeight() {
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                max = Math.max(max, h[index(x, y)]);
             }
         }
-    }
 
-    public Pair<Grid, Grid> computeUpwindH() {
-        Grid heightsX = new Grid();
-        Grid heightsY = new Grid();
+        return max;
+    }
 
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell cellX = heightsX.getCell(x, y);
-                Cell cellY = heightsY.getCell(x, y);
+    // largest velocity component magnitude
+    public float maxSpeed() {
+        float max = 0;
 
-                Pair<Float, Float> heights = getUpwindH(x, y);
-                cellX.h = heights.getLeft();
-                cellY.h = heights.getRight();
+        for (int y = 1; y <= height; y++) {
+            for (int x = 1; x <= width; x++) {
+                int i = index(x, y);
+                max = Math.max(max, Math.max(Math.abs(ux[i]), Math.abs(uy[i])));
             }
         }
 
-        //noinspection SuspiciousNameCombination
-        return new ImmutablePair<>(heightsX, heightsY);
+        return max;
     }
 
-    public void clampU() {
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell cell = getCell(x, y);
+    // water heights, then after a "-" line the wall heights
+    public static Pair<Grid, WallGrid> parseInput(Config config, Path path) {
+        var grid = new Grid(config);
+        var wallGrid = new WallGrid(config);
 
-                cell.ux = clampU(cell.ux);
-                cell.uy = clampU(cell.uy);
-            }
+        try (var parser = new GridParser(path)) {
+            if (!parser.readPlane(grid, grid.h))
+                throw new RuntimeException("Missing wall section in " + path);
+
+            parser.readPlane(wallGrid, wallGrid.h);
+            wallGrid.updateConnectivity();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
         }
+
+        return new ImmutablePair<>(grid, wallGrid);
     }
 
-    public void clampQ(Pair<Grid, Grid> upwindHeights) {
-        Grid heightsX = upwindHeights.getLeft();
-        Grid heightsY = upwindHeights.getRight();
+    public void computeDivergence() {
+        config.getParallel().forEachRow(1, height, y -> {
+            int from = config.vectorize ? VectorKernels.divergenceRow(this, y) : 1;
+
+            for (int x = from; x <= width; x++) {
+                int i = index(x, y);
+                int left = i - 1;
+                int up = i - stride;
 
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell cell = getCell(x, y);
-                cell.qx = clampQ(cell.qx, heightsX.getCell(x, y).h);
-                cell.qy = clampQ(cell.qy, heightsY.getCell(x, y).h);
+                divQ[i] = (qx[i] - qx[left]) / Config.CELL_SIZE + (qy[i] - qy[up]) / Config.CELL_SIZE;
+                divU[i] = (ux[i] - ux[left]) / Config.CELL_SIZE + (uy[i] - uy[up]) / Config.CELL_SIZE;
             }
-        }
+        });
     }
 
-    private static float clampU(float u) {
-        float uMax = Config.CELL_SIZE / (4 * Config.TIME_STEP);
+    // limits a velocity to a quarter cell per time step
+    public static float clampU(float u, float timeStep) {
+        float uMax = Config.CELL_SIZE / (4 * timeStep);
 
         return Math.clamp(u, -uMax, uMax);
     }
 
-    private static float clampQ(float q, float h) {
-        float qMax = Math.abs(h) * Config.CELL_SIZE / (4 * Config.TIME_STEP);
+    // limits a flow through a face with upwind height h to a quarter cell per time step
+    public static float clampQ(float q, float h, float timeStep) {
+        float qMax = Math.abs(h) * Config.CELL_SIZE / (4 * timeStep);
 
         return Math.clamp(q, -qMax, qMax);
     }
@@ -0,0 +1,196 @@
+package org.watersim.grid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// streams the text grid format straight into grid planes: rows of space separated numbers,
+// sections separated by a line holding only "-"
+public class GridParser implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_TOKEN = 64;
+
+    // powers of ten that are exact floats, so one division rounds the same way Float.parseFloat does
+    private static final float[] POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    private static final long MAX_EXACT_MANTISSA = 1 << 24;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final byte[] token = new byte[MAX_TOKEN];
+    private int tokenLength;
+
+    public GridParser(Path path) {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        buffer.flip();
+    }
+
+    // reads one section into the interior of plane, returns true when a separator follows it
+    public boolean readPlane(Grid grid, float[] plane) {
+        int width = grid.width;
+        int height = grid.height;
+
+        int y = 1;
+        int x = 1;
+
+        while (true) {
+            int c = nextByte();
+
+            if (c == '\n' || c < 0) {
+                if (x > 1) {
+                    if (x != width + 1)
+                        throw new RuntimeException("Row %s has %s values, expected %s".formatted(y, x - 1, width));
+                    y++;
+                    x = 1;
+                }
+
+                if (c < 0)
+                    break;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r')
+                continue;
+
+            int end = readToken(c);
+
+            if (x == 1 && tokenLength == 1 && token[0] == '-') {
+                skipLine(end);
+                checkRows(y, height);
+                return true;
+            }
+
+            if (y > height || x > width)
+                throw new RuntimeException("Grid is larger than %sx%s".formatted(width, height));
+            plane[grid.index(x, y)] = parseToken();
+            x++;
+
+            if (end == '\n' || end < 0) {
+                if (x != width + 1)
+                    throw new RuntimeException("Row %s has %s values, expected %s".formatted(y, x - 1, width));
+                y++;
+                x = 1;
+
+                if (end < 0)
+                    break;
+            }
+        }
+
+        checkRows(y, height);
+        return false;
+    }
+
+    private void checkRows(int y, int height) {
+        if (y != height + 1)
+            throw new RuntimeException("Grid has %s rows, expected %s".formatted(y - 1, height));
+    }
+
+    // collects bytes up to the next separator and returns the byte that ended the token
+    private int readToken(int c) {
+        tokenLength = 0;
+
+        while (c >= 0 && c != ' ' && c != '\n' && c != '\t' && c != '\r') {
+            if (tokenLength == MAX_TOKEN)
+                throw new RuntimeException("Malformed number in grid input");
+
+            token[tokenLength++] = (byte) c;
+            c = nextByte();
+        }
+
+        return c;
+    }
+
+    private void skipLine(int c) {
+        while (c >= 0 && c != '\n') {
+            c = nextByte();
+        }
+    }
+
+    // plain decimals with up to 24 bits of digits are parsed exactly by hand, anything else goes to Float.parseFloat
+    private float parseToken() {
+        int i = 0;
+        boolean negative = token[0] == '-';
+        if (negative)
+            i++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+
+        for (; i < tokenLength; i++) {
+            byte b = token[i];
+
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fraction)
+                    fractionDigits++;
+
+                if (mantissa >= MAX_EXACT_MANTISSA)
+                    return parseSlow();
+            }
+            else if (b == '.' && !fraction) {
+                fraction = true;
+            }
+            else {
+                return parseSlow();
+            }
+        }
+
+        if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length)
+            return parseSlow();
+
+        float value = (float) mantissa / POWERS_OF_TEN[fractionDigits];
+
+        return negative ? -value : value;
+    }
+
+    private float parseSlow() {
+        try {
+            return Float.parseFloat(new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+        }
+        catch (NumberFormatException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int nextByte() {
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+
+            try {
+                int read;
+                do {
+                    read = channel.read(buffer);
+                } while (read == 0);
+
+                buffer.flip();
+                if (read < 0)
+                    return -1;
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
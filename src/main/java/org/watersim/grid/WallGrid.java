@@ -1,50 +1,146 @@
 package org.watersim.grid;
 
-import java.nio.file.Path;
+import org.watersim.util.Config;
 
-import static org.watersim.util.Config.HEIGHT;
-import static org.watersim.util.Config.WIDTH;
+import java.nio.file.Path;
 
 public class WallGrid extends Grid {
 
-    public WallGrid() {
-        super();
+    // bits of flow, set when the cell and its neighbour in that direction are both open
+    public static final byte RIGHT = 1;
+    public static final byte DOWN = 2;
+    public static final byte LEFT = 4;
+    public static final byte UP = 8;
+
+    private static final byte MAX_DISTANCE = Byte.MAX_VALUE;
+
+    // derived from h by updateConnectivity, walls do not change during a run
+    private final byte[] flow;
+    private final byte[] wallDistance;
+
+    public WallGrid(Config config) {
+        super(config);
+        flow = new byte[h.length];
+        wallDistance = new byte[h.length];
         createBoundaryWalls();
     }
 
-    public WallGrid(String input) {
-        super(input);
+    public WallGrid(Config config, String input) {
+        super(config, input);
+        flow = new byte[h.length];
+        wallDistance = new byte[h.length];
         createBoundaryWalls();
     }
 
-    public WallGrid(Path path) {
-        super(path);
+    public WallGrid(Config config, Path path) {
+        super(config, path);
+        flow = new byte[h.length];
+        wallDistance = new byte[h.length];
         createBoundaryWalls();
     }
 
     public void createBoundaryWalls() {
-        for (int y = 0; y <= HEIGHT + 1; y++) {
-            for (int x = 0; x <= WIDTH + 1; x++) {
-                if (x == 0 || y == 0 || x == HEIGHT + 1 || y == WIDTH + 1) {
-                    getCell(x, y).h = 1f;
+        for (int y = 0; y <= height + 1; y++) {
+            for (int x = 0; x <= width + 1; x++) {
+                if (x == 0 || y == 0 || x == height + 1 || y == width + 1) {
+                    h[index(x, y)] = 1f;
+                }
+            }
+        }
+
+        updateConnectivity();
+    }
+
+    // rebuilds the flow bits and wall distances, needed after h is changed directly
+    public void updateConnectivity() {
+        for (int i = 0; i < h.length; i++) {
+            byte bits = 0;
+
+            if (h[i] == 0) {
+                if (i + 1 < h.length && h[i + 1] == 0)
+                    bits |= RIGHT;
+                if (i + stride < h.length && h[i + stride] == 0)
+                    bits |= DOWN;
+                if (i >= 1 && h[i - 1] == 0)
+                    bits |= LEFT;
+                if (i >= stride && h[i - stride] == 0)
+                    bits |= UP;
+            }
+
+            flow[i] = bits;
+        }
+
+        computeWallDistances();
+    }
+
+    // chebyshev distance in cells to the nearest cell with h > 0, two chamfer sweeps
+    private void computeWallDistances() {
+        int rows = h.length / stride;
+
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < stride; x++) {
+                int i = y * stride + x;
+                if (h[i] > 0) {
+                    wallDistance[i] = 0;
+                    continue;
                 }
+
+                int distance = MAX_DISTANCE;
+                if (x > 0)
+                    distance = Math.min(distance, wallDistance[i - 1] + 1);
+                if (y > 0) {
+                    distance = Math.min(distance, wallDistance[i - stride] + 1);
+                    if (x > 0)
+                        distance = Math.min(distance, wallDistance[i - stride - 1] + 1);
+                    if (x < stride - 1)
+                        distance = Math.min(distance, wallDistance[i - stride + 1] + 1);
+                }
+                wallDistance[i] = (byte) Math.min(distance, MAX_DISTANCE);
+            }
+        }
+
+        for (int y = rows - 1; y >= 0; y--) {
+            for (int x = stride - 1; x >= 0; x--) {
+                int i = y * stride + x;
+
+                int distance = wallDistance[i];
+                if (x < stride - 1)
+                    distance = Math.min(distance, wallDistance[i + 1] + 1);
+                if (y < rows - 1) {
+                    distance = Math.min(distance, wallDistance[i + stride] + 1);
+                    if (x < stride - 1)
+                        distance = Math.min(distance, wallDistance[i + stride + 1] + 1);
+                    if (x > 0)
+                        distance = Math.min(distance, wallDistance[i + stride - 1] + 1);
+                }
+                wallDistance[i] = (byte) Math.min(distance, MAX_DISTANCE);
             }
         }
     }
 
+    // the flow bits of every cell by index, for kernels that test many cells at once, not to be modified
+    public byte[] getFlowBits() {
+        return flow;
+    }
+
     public boolean canFlowRight(int x, int y) {
-        return getCell(x, y).h == 0 && getCell(x + 1, y).h == 0;
+        return (flow[index(x, y)] & RIGHT) != 0;
     }
 
     public boolean canFlowDown(int x, int y) {
-        return getCell(x, y).h == 0 && getCell(x, y + 1).h == 0;
+        return (flow[index(x, y)] & DOWN) != 0;
     }
 
     public boolean canFlowLeft(int x, int y) {
-        return getCell(x, y).h == 0 && getCell(x - 1, y).h == 0;
+        return (flow[index(x, y)] & LEFT) != 0;
     }
 
     public boolean canFlowUp(int x, int y) {
-        return getCell(x, y).h == 0 && getCell(x, y - 1).h == 0;
+        return (flow[index(x, y)] & UP) != 0;
+    }
+
+    // offset to the nearest cell with h > 0, the larger of the x and y offsets, saturating at MAX_DISTANCE
+    public int getWallDistance(int x, int y) {
+        return wallDistance[index(x, y)];
     }
 }
@@ -0,0 +1,133 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// hands frames to a background thread so writing overlaps with the simulation,
+// frames are copied into a fixed pool of grids and write blocks while the pool is used up. the pooled grids only
+// hold the output planes, the rest of a frame is never written
+public class AsyncFrameWriter implements FrameWriter {
+
+    private static final int END = -1;
+
+    private final FrameWriter writer;
+    private final Grid[] snapshots;
+
+    // snapshot indices that can be filled, and the ones waiting to be written in frame order
+    private final BlockingQueue<Integer> free;
+    private final BlockingQueue<Integer> pending;
+
+    private final Thread thread;
+    private volatile Throwable error;
+
+    public AsyncFrameWriter(Config config, FrameWriter writer, int queueSize) {
+        this.writer = writer;
+
+        snapshots = new Grid[queueSize];
+        free = new ArrayBlockingQueue<>(queueSize);
+        pending = new ArrayBlockingQueue<>(queueSize + 1);
+        for (int i = 0; i < queueSize; i++) {
+            snapshots[i] = Grid.createOutputGrid(config);
+            free.add(i);
+        }
+
+        thread = new Thread(this::run, "frame-writer");
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                int index = pending.take();
+                if (index == END)
+                    return;
+
+                // after a failure keep draining so the simulation thread never blocks on the pool
+                if (error == null) {
+                    try {
+                        writer.write(snapshots[index]);
+                    }
+                    catch (Throwable e) {
+                        error = e;
+                    }
+                }
+
+                free.put(index);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void write(Grid grid) {
+        checkError();
+
+        try {
+            int index = free.take();
+
+            // writers only read the output quantities
+            Grid snapshot = snapshots[index];
+            for (Grid.DataType type : Grid.DataType.values()) {
+                System.arraycopy(grid.getPlane(type), 0, snapshot.getPlane(type), 0, snapshot.h.length);
+            }
+
+            pending.put(index);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // waits until every queued frame is written, by holding all snapshots, then flushes the underlying writer
+    @Override
+    public void flush() {
+        List<Integer> drained = new ArrayList<>(snapshots.length);
+
+        try {
+            for (int i = 0; i < snapshots.length; i++) {
+                drained.add(free.take());
+            }
+
+            checkError();
+            writer.flush();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        finally {
+            free.addAll(drained);
+        }
+    }
+
+    private void checkError() {
+        if (error != null)
+            throw new RuntimeException(error);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            pending.put(END);
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        finally {
+            writer.close();
+        }
+
+        checkError();
+    }
+}
@@ -0,0 +1,111 @@
+package org.watersim.io;
+
+import lombok.Getter;
+import org.watersim.grid.Grid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// reads files written by BinaryFrameWriter, frames can be read in any order
+public class BinaryFrameReader implements FrameSource {
+
+    private final FileChannel channel;
+
+    private final FrameHeader header;
+    @Getter
+    private final int frameCount;
+
+    private final int frameSize;
+
+    private final ByteBuffer frameBuffer;
+    private final FloatBuffer frameFloats;
+
+    public BinaryFrameReader(Path path) {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            header = FrameHeader.read(channel, path, BinaryFrameWriter.MAGIC, BinaryFrameWriter.VERSION);
+            frameSize = header.getFrameValues() * Float.BYTES;
+
+            // a frame cut off by an interrupted run is ignored
+            frameCount = (int) ((channel.size() - header.getSize()) / frameSize);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        frameBuffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        frameFloats = frameBuffer.asFloatBuffer();
+    }
+
+    FrameHeader getHeader() {
+        return header;
+    }
+
+    @Override
+    public int getWidth() {
+        return header.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return header.getHeight();
+    }
+
+    @Override
+    public int getFps() {
+        return header.getFps();
+    }
+
+    @Override
+    public Grid.DataType[] getFields() {
+        return header.getFields();
+    }
+
+    // copies the stored fields of a frame into the interior of target, other planes are left alone
+    @Override
+    public void readFrame(int frame, Grid target) {
+        header.checkGrid(target);
+        loadFrame(frame);
+
+        for (Grid.DataType field : header.getFields()) {
+            float[] plane = target.getPlane(field);
+
+            for (int y = 1; y <= header.getHeight(); y++) {
+                frameFloats.get(plane, target.index(1, y), header.getWidth());
+            }
+        }
+    }
+
+    // copies one field of a frame into target as a width * height row major plane
+    @Override
+    public float[] readPlane(int frame, Grid.DataType field, float[] target) {
+        int planeSize = header.getWidth() * header.getHeight();
+        int fieldIndex = header.getFieldIndex(field);
+
+        loadFrame(frame);
+
+        frameFloats.position(fieldIndex * planeSize);
+        frameFloats.get(target, 0, planeSize);
+
+        return target;
+    }
+
+    private void loadFrame(int frame) {
+        if (frame < 0 || frame >= frameCount)
+            throw new RuntimeException("Frame %s out of range, file has %s frames".formatted(frame, frameCount));
+
+        frameBuffer.clear();
+        ChannelUtils.readFully(channel, frameBuffer, header.getSize() + (long) frame * frameSize);
+        frameFloats.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
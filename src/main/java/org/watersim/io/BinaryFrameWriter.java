@@ -0,0 +1,93 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// raw frames: a FrameHeader, then per frame one width * height row major
+// little endian float plane per field, without the boundary ring
+public class BinaryFrameWriter implements FrameWriter {
+
+    static final int MAGIC = 0x4D495357;
+    static final int VERSION = 1;
+
+    private final FileChannel channel;
+    private final Grid.DataType[] fields;
+    private final int width, height;
+
+    private final ByteBuffer frameBuffer;
+    private final FloatBuffer frameFloats;
+
+    public BinaryFrameWriter(Config config, Path path, Grid.DataType[] fields, int startFrame) {
+        this.fields = fields;
+        width = config.width;
+        height = config.height;
+
+        var header = new FrameHeader(width, height, config.fps, fields);
+        int frameSize = header.getFrameValues() * Float.BYTES;
+
+        try {
+            if (startFrame > 0) {
+                // keep the frames before startFrame and append after them
+                try (var reader = new BinaryFrameReader(path)) {
+                    reader.getHeader().checkSameLayout(header, path);
+                    if (reader.getFrameCount() < startFrame)
+                        throw new RuntimeException("%s holds fewer than %s frames".formatted(path, startFrame));
+                }
+
+                channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                long end = header.getSize() + (long) startFrame * frameSize;
+                channel.truncate(end);
+                channel.position(end);
+            }
+            else {
+                channel = FileChannel.open(path,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                header.write(channel, MAGIC, VERSION);
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        frameBuffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        frameFloats = frameBuffer.asFloatBuffer();
+    }
+
+    @Override
+    public void write(Grid grid) {
+        frameFloats.clear();
+        for (Grid.DataType field : fields) {
+            float[] plane = grid.getPlane(field);
+
+            for (int y = 1; y <= height; y++) {
+                frameFloats.put(plane, grid.index(1, y), width);
+            }
+        }
+
+        frameBuffer.clear();
+        ChannelUtils.writeFully(channel, frameBuffer);
+    }
+
+    @Override
+    public void flush() {
+        try {
+            channel.force(false);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,126 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// full simulator state after a frame, layout (little endian):
+// int magic, version, width, height, fps, frame, grid count, tile count,
+// then every plane of every grid including the boundary ring, then one byte per active tile flag
+public class Checkpoint {
+
+    static final int MAGIC = 0x4B435357;
+    static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 8 * Integer.BYTES;
+
+    // written to a temporary file first and moved into place, so a kill midway leaves the previous checkpoint intact.
+    // the active tiles are stored since they only ever grow, the grid alone does not tell which dried tiles to visit
+    public static void write(Config config, Path path, int frame, boolean[] tiles, Grid... grids) {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tempPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(config.width);
+            header.putInt(config.height);
+            header.putInt(config.fps);
+            header.putInt(frame);
+            header.putInt(grids.length);
+            header.putInt(tiles.length);
+            header.flip();
+            ChannelUtils.writeFully(channel, header);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(grids[0].h.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer floats = buffer.asFloatBuffer();
+            for (Grid grid : grids) {
+                for (float[] plane : grid.getAllPlanes()) {
+                    floats.clear();
+                    floats.put(plane);
+
+                    buffer.clear();
+                    ChannelUtils.writeFully(channel, buffer);
+                }
+            }
+
+            ByteBuffer tileBuffer = ByteBuffer.allocate(tiles.length);
+            for (boolean tile : tiles) {
+                tileBuffer.put((byte) (tile ? 1 : 0));
+            }
+            tileBuffer.flip();
+            ChannelUtils.writeFully(channel, tileBuffer);
+
+            channel.force(true);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // overwrites the grids and tiles with the stored state and returns the frame it was taken after
+    public static int read(Config config, Path path, boolean[] tiles, Grid... grids) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            ChannelUtils.readFully(channel, header, 0);
+
+            if (header.getInt() != MAGIC)
+                throw new RuntimeException("Not a checkpoint: " + path);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new RuntimeException("Unsupported checkpoint version " + version);
+
+            int width = header.getInt();
+            int height = header.getInt();
+            int fps = header.getInt();
+            int frame = header.getInt();
+            int gridCount = header.getInt();
+            int tileCount = header.getInt();
+            if (width != config.width || height != config.height || fps != config.fps || gridCount != grids.length
+                    || tileCount != tiles.length)
+                throw new RuntimeException("%s was written with different settings".formatted(path));
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(grids[0].h.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer floats = buffer.asFloatBuffer();
+            long position = HEADER_SIZE;
+            for (Grid grid : grids) {
+                for (float[] plane : grid.getAllPlanes()) {
+                    buffer.clear();
+                    ChannelUtils.readFully(channel, buffer, position);
+                    position += buffer.capacity();
+
+                    floats.clear();
+                    floats.get(plane);
+                }
+            }
+
+            ByteBuffer tileBuffer = ByteBuffer.allocate(tiles.length);
+            ChannelUtils.readFully(channel, tileBuffer, position);
+            for (int i = 0; i < tiles.length; i++) {
+                tiles[i] = tileBuffer.get(i) != 0;
+            }
+
+            return frame;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
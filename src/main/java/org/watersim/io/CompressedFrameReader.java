@@ -0,0 +1,248 @@
+package org.watersim.io;
+
+import lombok.Getter;
+import org.watersim.grid.Grid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// random access reads of files written by CompressedFrameWriter, a frame is rebuilt from the keyframe
+// before it, stepping forward from the last decoded frame when that is on the way
+public class CompressedFrameReader implements FrameSource {
+
+    private static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    private final FrameHeader header;
+    private final int keyframeInterval;
+
+    private final long[] offsets;
+    @Getter
+    private final int frameCount;
+
+    private final Inflater inflater = new Inflater();
+
+    private final int[] bits;
+    private final byte[] raw;
+    private byte[] compressed = new byte[0];
+    private int decodedFrame = -1;
+
+    public CompressedFrameReader(Path path) {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        header = FrameHeader.read(channel, path, CompressedFrameWriter.MAGIC, CompressedFrameWriter.VERSION);
+
+        ByteBuffer interval = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelUtils.readFully(channel, interval, header.getSize());
+        keyframeInterval = interval.getInt();
+
+        long[] index = readIndex();
+        if (index == null)
+            index = scanFrames(header.getSize() + Integer.BYTES);
+        offsets = index;
+        frameCount = index.length;
+
+        bits = new int[header.getFrameValues()];
+        raw = new byte[bits.length * Integer.BYTES];
+    }
+
+    FrameHeader getHeader() {
+        return header;
+    }
+
+    int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    // file position just past the stored frame
+    long getFrameEnd(int frame) {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelUtils.readFully(channel, lengthBuffer, offsets[frame]);
+
+        return offsets[frame] + Integer.BYTES + lengthBuffer.getInt();
+    }
+
+    long getOffset(int frame) {
+        return offsets[frame];
+    }
+
+    // float bits of all stored fields of a frame, in file order
+    void readBits(int frame, int[] target) {
+        decodeFrame(frame);
+        System.arraycopy(bits, 0, target, 0, bits.length);
+    }
+
+    @Override
+    public int getWidth() {
+        return header.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return header.getHeight();
+    }
+
+    @Override
+    public int getFps() {
+        return header.getFps();
+    }
+
+    @Override
+    public Grid.DataType[] getFields() {
+        return header.getFields();
+    }
+
+    // the index written on close, or null when the run was interrupted before that
+    private long[] readIndex() {
+        try {
+            long size = channel.size();
+            if (size < header.getSize() + Integer.BYTES + TRAILER_SIZE)
+                return null;
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            ChannelUtils.readFully(channel, trailer, size - TRAILER_SIZE);
+
+            int count = trailer.getInt();
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != CompressedFrameWriter.INDEX_MAGIC
+                    || indexOffset + (long) count * Long.BYTES + TRAILER_SIZE != size)
+                return null;
+
+            ByteBuffer index = ByteBuffer.allocate(count * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ChannelUtils.readFully(channel, index, indexOffset);
+
+            long[] offsets = new long[count];
+            index.asLongBuffer().get(offsets);
+
+            return offsets;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // walks the length prefixes, a frame cut off by an interrupted run is ignored
+    private long[] scanFrames(long position) {
+        try {
+            long size = channel.size();
+            long[] offsets = new long[64];
+            int count = 0;
+
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (position + Integer.BYTES <= size) {
+                lengthBuffer.clear();
+                ChannelUtils.readFully(channel, lengthBuffer, position);
+
+                long next = position + Integer.BYTES + lengthBuffer.getInt();
+                if (next > size)
+                    break;
+
+                if (count == offsets.length)
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = position;
+
+                position = next;
+            }
+
+            return Arrays.copyOf(offsets, count);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // copies the stored fields of a frame into the interior of target, other planes are left alone
+    @Override
+    public void readFrame(int frame, Grid target) {
+        header.checkGrid(target);
+        decodeFrame(frame);
+
+        int k = 0;
+        for (Grid.DataType field : header.getFields()) {
+            float[] plane = target.getPlane(field);
+
+            for (int y = 1; y <= header.getHeight(); y++) {
+                for (int x = 1; x <= header.getWidth(); x++) {
+                    plane[target.index(x, y)] = Float.intBitsToFloat(bits[k++]);
+                }
+            }
+        }
+    }
+
+    // copies one field of a frame into target as a width * height row major plane
+    @Override
+    public float[] readPlane(int frame, Grid.DataType field, float[] target) {
+        int planeSize = header.getWidth() * header.getHeight();
+        int start = header.getFieldIndex(field) * planeSize;
+
+        decodeFrame(frame);
+
+        for (int i = 0; i < planeSize; i++) {
+            target[i] = Float.intBitsToFloat(bits[start + i]);
+        }
+
+        return target;
+    }
+
+    private void decodeFrame(int frame) {
+        if (frame < 0 || frame >= frameCount)
+            throw new RuntimeException("Frame %s out of range, file has %s frames".formatted(frame, frameCount));
+
+        int keyframe = frame - frame % keyframeInterval;
+
+        int from = decodedFrame >= keyframe && decodedFrame <= frame ? decodedFrame + 1 : keyframe;
+        for (int f = from; f <= frame; f++) {
+            inflateFrame(f);
+            DeltaCodec.decode(raw, bits, f == keyframe);
+            decodedFrame = f;
+        }
+    }
+
+    private void inflateFrame(int frame) {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelUtils.readFully(channel, lengthBuffer, offsets[frame]);
+        int length = lengthBuffer.getInt();
+
+        if (compressed.length < length)
+            compressed = new byte[length];
+        ChannelUtils.readFully(channel, ByteBuffer.wrap(compressed, 0, length), offsets[frame] + Integer.BYTES);
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+
+        try {
+            int inflated = 0;
+            while (inflated < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, raw.length - inflated);
+                if (n == 0 && inflater.needsInput())
+                    break;
+
+                inflated += n;
+            }
+
+            if (inflated != raw.length)
+                throw new RuntimeException("Corrupt frame " + frame);
+        }
+        catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+}
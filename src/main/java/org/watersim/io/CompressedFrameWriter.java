@@ -0,0 +1,177 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+// lossless keyframe + delta frames, layout:
+// FrameHeader, int keyframe interval,
+// per frame an int length and that many deflated DeltaCodec bytes,
+// on close an index of long frame offsets, int frame count, long index offset and int INDEX_MAGIC
+public class CompressedFrameWriter implements FrameWriter {
+
+    static final int MAGIC = 0x5A495357;
+    static final int VERSION = 1;
+    static final int INDEX_MAGIC = 0x58444E49;
+
+    private final FileChannel channel;
+    private final Grid.DataType[] fields;
+    private final int width, height;
+    private final int keyframeInterval;
+
+    private final Deflater deflater;
+
+    private int[] bits;
+    private int[] previousBits;
+    private final byte[] raw;
+    private byte[] compressed;
+
+    private long[] offsets = new long[64];
+    private int frame = 0;
+    private long position;
+
+    public CompressedFrameWriter(Config config, Path path, Grid.DataType[] fields,
+                                 int keyframeInterval, int level, int startFrame) {
+        this.fields = fields;
+        width = config.width;
+        height = config.height;
+
+        var header = new FrameHeader(width, height, config.fps, fields);
+
+        bits = new int[header.getFrameValues()];
+        previousBits = new int[bits.length];
+        raw = new byte[bits.length * Integer.BYTES];
+        compressed = new byte[raw.length / 4];
+
+        try {
+            if (startFrame > 0) {
+                // keep the frames before startFrame, the delta chain continues from the last kept frame
+                try (var reader = new CompressedFrameReader(path)) {
+                    reader.getHeader().checkSameLayout(header, path);
+                    if (reader.getFrameCount() < startFrame)
+                        throw new RuntimeException("%s holds fewer than %s frames".formatted(path, startFrame));
+
+                    this.keyframeInterval = reader.getKeyframeInterval();
+
+                    while (offsets.length < startFrame) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    for (int i = 0; i < startFrame; i++) {
+                        offsets[i] = reader.getOffset(i);
+                    }
+
+                    position = reader.getFrameEnd(startFrame - 1);
+                    reader.readBits(startFrame - 1, previousBits);
+                }
+
+                channel = FileChannel.open(path, StandardOpenOption.WRITE);
+                channel.truncate(position);
+                channel.position(position);
+
+                frame = startFrame;
+            }
+            else {
+                this.keyframeInterval = keyframeInterval;
+
+                channel = FileChannel.open(path,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                header.write(channel, MAGIC, VERSION);
+
+                ByteBuffer interval = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                interval.putInt(keyframeInterval).flip();
+                ChannelUtils.writeFully(channel, interval);
+
+                position = header.getSize() + Integer.BYTES;
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        deflater = new Deflater(level);
+    }
+
+    @Override
+    public void write(Grid grid) {
+        int k = 0;
+        for (Grid.DataType field : fields) {
+            float[] plane = grid.getPlane(field);
+
+            for (int y = 1; y <= height; y++) {
+                for (int x = 1; x <= width; x++) {
+                    bits[k++] = Float.floatToRawIntBits(plane[grid.index(x, y)]);
+                }
+            }
+        }
+
+        boolean keyframe = frame % keyframeInterval == 0;
+        DeltaCodec.encode(bits, keyframe ? null : previousBits, raw);
+
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        if (frame == offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[frame] = position;
+
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        lengthBuffer.putInt(length).flip();
+        ChannelUtils.writeFully(channel, lengthBuffer);
+        ChannelUtils.writeFully(channel, ByteBuffer.wrap(compressed, 0, length));
+        position += Integer.BYTES + length;
+
+        int[] temp = previousBits;
+        previousBits = bits;
+        bits = temp;
+
+        frame++;
+    }
+
+    @Override
+    public void flush() {
+        try {
+            channel.force(false);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(frame * Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frame; i++) {
+            index.putLong(offsets[i]);
+        }
+        index.putInt(frame);
+        index.putLong(position);
+        index.putInt(INDEX_MAGIC);
+        index.flip();
+
+        try {
+            ChannelUtils.writeFully(channel, index);
+        }
+        finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.watersim.io;
+
+// turns a frame of float bits into bytes that deflate well: delta frames are xored with the previous frame,
+// so unchanged cells become 0, and the bytes are split into four planes so the mostly equal sign and
+// exponent bytes end up next to each other
+class DeltaCodec {
+
+    // previous is null for a keyframe
+    static void encode(int[] bits, int[] previous, byte[] raw) {
+        int n = bits.length;
+
+        for (int i = 0; i < n; i++) {
+            int value = previous == null ? bits[i] : bits[i] ^ previous[i];
+
+            raw[i] = (byte) value;
+            raw[n + i] = (byte) (value >>> 8);
+            raw[2 * n + i] = (byte) (value >>> 16);
+            raw[3 * n + i] = (byte) (value >>> 24);
+        }
+    }
+
+    // a keyframe overwrites bits, a delta frame is applied on top of the previous frame already in bits
+    static void decode(byte[] raw, int[] bits, boolean keyframe) {
+        int n = bits.length;
+
+        for (int i = 0; i < n; i++) {
+            int value = (raw[i] & 0xFF)
+                    | (raw[n + i] & 0xFF) << 8
+                    | (raw[2 * n + i] & 0xFF) << 16
+                    | (raw[3 * n + i] & 0xFF) << 24;
+
+            bits[i] = keyframe ? value : bits[i] ^ value;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.watersim.io;
+
+import lombok.Getter;
+import org.watersim.grid.Grid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// little endian header shared by the binary formats:
+// int magic, version, width, height, fps, field count and one DataType ordinal per field
+@Getter
+class FrameHeader {
+
+    private final int width, height, fps;
+    private final Grid.DataType[] fields;
+
+    FrameHeader(int width, int height, int fps, Grid.DataType[] fields) {
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.fields = fields;
+    }
+
+    int getSize() {
+        return (6 + fields.length) * Integer.BYTES;
+    }
+
+    // floats in one frame over all stored fields
+    int getFrameValues() {
+        return fields.length * width * height;
+    }
+
+    void write(FileChannel channel, int magic, int version) {
+        ByteBuffer header = ByteBuffer.allocate(getSize()).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(magic);
+        header.putInt(version);
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(fps);
+        header.putInt(fields.length);
+        for (Grid.DataType field : fields) {
+            header.putInt(field.ordinal());
+        }
+        header.flip();
+
+        ChannelUtils.writeFully(channel, header);
+    }
+
+    static FrameHeader read(FileChannel channel, Path path, int magic, int version) {
+        ByteBuffer header = ByteBuffer.allocate(6 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelUtils.readFully(channel, header, 0);
+
+        if (header.getInt() != magic)
+            throw new RuntimeException("Unexpected frame file type: " + path);
+        int fileVersion = header.getInt();
+        if (fileVersion != version)
+            throw new RuntimeException("Unsupported frame file version " + fileVersion);
+
+        int width = header.getInt();
+        int height = header.getInt();
+        int fps = header.getInt();
+
+        int fieldCount = header.getInt();
+        ByteBuffer fieldBuffer = ByteBuffer.allocate(fieldCount * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ChannelUtils.readFully(channel, fieldBuffer, header.capacity());
+
+        Grid.DataType[] fields = new Grid.DataType[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = Grid.DataType.values()[fieldBuffer.getInt()];
+        }
+
+        return new FrameHeader(width, height, fps, fields);
+    }
+
+    int getFieldIndex(Grid.DataType field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == field)
+                return i;
+        }
+
+        throw new RuntimeException("Field %s is not stored".formatted(field));
+    }
+
+    // for appending to an existing file, which must have been written with the same layout
+    void checkSameLayout(FrameHeader other, Path path) {
+        if (width != other.width || height != other.height || fps != other.fps || !Arrays.equals(fields, other.fields))
+            throw new RuntimeException("%s was written with different settings".formatted(path));
+    }
+
+    void checkGrid(Grid grid) {
+        if (grid.stride != width + 2 || grid.h.length != (width + 2) * (height + 2))
+            throw new RuntimeException("Grid size does not match %sx%s frames".formatted(width, height));
+    }
+}
@@ -0,0 +1,37 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+
+// random access to the frames of a finished or interrupted run, frames can be read in any order
+public interface FrameSource extends Closeable {
+
+    int getWidth();
+
+    int getHeight();
+
+    int getFps();
+
+    // the stored fields, in file order
+    Grid.DataType[] getFields();
+
+    int getFrameCount();
+
+    // copies the stored fields of a frame into the interior of target, other planes are left alone
+    void readFrame(int frame, Grid target);
+
+    // copies one field of a frame into target as a width * height row major plane
+    float[] readPlane(int frame, Grid.DataType field, float[] target);
+
+    // picks the reader for the output a run with this config wrote to directory
+    static FrameSource open(Config config, Path directory) {
+        return switch (config.outputFormat) {
+            case TEXT -> new TextFrameReader(config, directory, config.separateFiles);
+            case BINARY -> new BinaryFrameReader(directory.resolve("full.bin"));
+            case COMPRESSED -> new CompressedFrameReader(directory.resolve("full.wsz"));
+        };
+    }
+}
@@ -0,0 +1,29 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+
+public interface FrameWriter extends Closeable {
+
+    // appends the next frame, the first call writes startFrame
+    void write(Grid grid);
+
+    // pushes every frame written so far to the file system
+    void flush();
+
+    // picks the writer for the configured output format, run on a background thread unless synchronousOutput is set,
+    // with startFrame > 0 existing output is cut back to frames [0, startFrame) and continued from there
+    static FrameWriter open(Config config, Path directory, int startFrame) {
+        FrameWriter writer = switch (config.outputFormat) {
+            case TEXT -> new TextFrameWriter(directory, config.separateFiles, startFrame);
+            case BINARY -> new BinaryFrameWriter(config, directory.resolve("full.bin"), config.outputFields, startFrame);
+            case COMPRESSED -> new CompressedFrameWriter(config, directory.resolve("full.wsz"), config.outputFields,
+                    config.keyframeInterval, config.compressionLevel, startFrame);
+        };
+
+        return config.synchronousOutput ? writer : new AsyncFrameWriter(config, writer, config.outputQueueSize);
+    }
+}
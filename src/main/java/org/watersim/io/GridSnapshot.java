@@ -0,0 +1,121 @@
+package org.watersim.io;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// binary simulation input: a FrameHeader, the stored water planes, then the wall heights,
+// all little endian width * height row major float planes without the boundary ring
+public class GridSnapshot {
+
+    static final int MAGIC = 0x4E495357;
+    static final int VERSION = 1;
+
+    private static final Grid.DataType[] FIELDS = Grid.DataType.values();
+
+    public static boolean isSnapshot(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            magic.flip();
+
+            return magic.remaining() == Integer.BYTES && magic.getInt() == MAGIC;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void write(Path path, Grid grid, Grid wallGrid) {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            var header = new FrameHeader(grid.width, grid.height, 0, FIELDS);
+            header.write(channel, MAGIC, VERSION);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect((header.getFrameValues() + grid.width * grid.height) * Float.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            FloatBuffer floats = buffer.asFloatBuffer();
+
+            for (Grid.DataType field : FIELDS) {
+                putPlane(floats, grid, grid.getPlane(field));
+            }
+            putPlane(floats, wallGrid, wallGrid.h);
+
+            ChannelUtils.writeFully(channel, buffer);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static Pair<Grid, WallGrid> read(Config config, Path path) {
+        var grid = new Grid(config);
+        var wallGrid = new WallGrid(config);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            FrameHeader header = FrameHeader.read(channel, path, MAGIC, VERSION);
+            if (header.getWidth() != config.width || header.getHeight() != config.height)
+                throw new RuntimeException("Snapshot is %sx%s, config is %sx%s"
+                        .formatted(header.getWidth(), header.getHeight(), config.width, config.height));
+
+            long size = (long) (header.getFrameValues() + config.width * config.height) * Float.BYTES;
+            if (channel.size() < header.getSize() + size)
+                throw new RuntimeException("Truncated snapshot " + path);
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, header.getSize(), size);
+            FloatBuffer floats = mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+            for (Grid.DataType field : header.getFields()) {
+                getPlane(floats, grid, grid.getPlane(field));
+            }
+            getPlane(floats, wallGrid, wallGrid.h);
+            wallGrid.updateConnectivity();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new ImmutablePair<>(grid, wallGrid);
+    }
+
+    public static void convert(Config config, Path textPath, Path snapshotPath) {
+        Pair<Grid, WallGrid> input = Grid.parseInput(config, textPath);
+        write(snapshotPath, input.getLeft(), input.getRight());
+    }
+
+    // true when the snapshot exists and is not older than the text input it may have been made from
+    public static boolean isUpToDate(Path textPath, Path snapshotPath) {
+        try {
+            return Files.exists(snapshotPath)
+                    && (!Files.exists(textPath)
+                    || Files.getLastModifiedTime(snapshotPath).compareTo(Files.getLastModifiedTime(textPath)) >= 0);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void putPlane(FloatBuffer floats, Grid grid, float[] plane) {
+        for (int y = 1; y <= grid.height; y++) {
+            floats.put(plane, grid.index(1, y), grid.width);
+        }
+    }
+
+    private static void getPlane(FloatBuffer floats, Grid grid, float[] plane) {
+        for (int y = 1; y <= grid.height; y++) {
+            floats.get(plane, grid.index(1, y), grid.width);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// decodes a window of frames around the last requested one on a background thread, so scrubbing and playback
+// mostly copy frames that are already in memory. frames ahead of the playhead are loaded first, then the ones
+// behind it, a frame outside the window is loaded on request like any other. every slot of the window holds all
+// stored fields of a frame as floats, 12 MB per frame for h, qx and qy at 1024 x 1024
+public class PrefetchingFrameReader implements FrameSource {
+
+    public static final int DEFAULT_WINDOW = 60;
+
+    // the default window takes at most a quarter of the heap
+    private static final int HEAP_SHARE = 4;
+
+    private static final int EMPTY = -1;
+
+    private final FrameSource source;
+    private final int width, height;
+    private final int frameCount;
+    private final int before, after;
+
+    // the stored fields of frame slotFrames[s] in slots[s], width * height row major planes in file order,
+    // frame f can only be in slot f % slots.length so the frames of one window never share a slot
+    private final float[][] slots;
+    private final int[] slotFrames;
+
+    // read by the loader thread only
+    private final Grid loadGrid;
+
+    private final Object lock = new Object();
+    private int playhead = 0;
+    private boolean closed = false;
+
+    private final Thread thread;
+    private volatile Throwable error;
+
+    // DEFAULT_WINDOW frames on each side, fewer when those would not fit into the heap share
+    public PrefetchingFrameReader(Config config, FrameSource source) {
+        this(config, source, getDefaultWindow(source), getDefaultWindow(source));
+    }
+
+    // keeps up to before frames behind and after frames ahead of the playhead
+    public PrefetchingFrameReader(Config config, FrameSource source, int before, int after) {
+        this.source = source;
+        width = source.getWidth();
+        height = source.getHeight();
+        frameCount = source.getFrameCount();
+        this.before = before;
+        this.after = after;
+
+        // fails up front rather than running out of memory while allocating or later on
+        long windowBytes = (before + after + 1L) * getFrameBytes(source);
+        long maxBytes = Runtime.getRuntime().maxMemory();
+        if (windowBytes > maxBytes / 2) {
+            throw new RuntimeException("A window of %s frames takes %s MB, more than half of the %s MB heap"
+                    .formatted(before + after + 1, windowBytes >> 20, maxBytes >> 20));
+        }
+
+        slots = new float[before + after + 1][source.getFields().length * width * height];
+        slotFrames = new int[slots.length];
+        Arrays.fill(slotFrames, EMPTY);
+
+        loadGrid = new Grid(config);
+
+        thread = new Thread(this::run, "frame-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static int getDefaultWindow(FrameSource source) {
+        long slots = Runtime.getRuntime().maxMemory() / HEAP_SHARE / getFrameBytes(source);
+
+        return Math.clamp((slots - 1) / 2, 0, DEFAULT_WINDOW);
+    }
+
+    private static long getFrameBytes(FrameSource source) {
+        return (long) source.getFields().length * source.getWidth() * source.getHeight() * Float.BYTES;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                int frame;
+                int slot;
+
+                synchronized (lock) {
+                    frame = nextMissingFrame();
+                    while (!closed && frame == EMPTY) {
+                        lock.wait();
+                        frame = nextMissingFrame();
+                    }
+                    if (closed)
+                        return;
+
+                    slot = frame % slots.length;
+                    slotFrames[slot] = EMPTY;
+                }
+
+                // the slot is marked empty, so readers leave it alone while it is filled
+                try {
+                    source.readFrame(frame, loadGrid);
+                    store(loadGrid, slots[slot]);
+                }
+                catch (Throwable e) {
+                    error = e;
+                }
+
+                synchronized (lock) {
+                    if (error != null) {
+                        lock.notifyAll();
+                        return;
+                    }
+
+                    slotFrames[slot] = frame;
+                    lock.notifyAll();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the first frame of the window that is not loaded, from the playhead forward and then backward
+    private int nextMissingFrame() {
+        for (int frame = playhead; frame <= Math.min(playhead + after, frameCount - 1); frame++) {
+            if (slotFrames[frame % slots.length] != frame)
+                return frame;
+        }
+        for (int frame = playhead - 1; frame >= Math.max(playhead - before, 0); frame--) {
+            if (slotFrames[frame % slots.length] != frame)
+                return frame;
+        }
+
+        return EMPTY;
+    }
+
+    private void store(Grid grid, float[] slot) {
+        int k = 0;
+        for (Grid.DataType field : source.getFields()) {
+            float[] plane = grid.getPlane(field);
+
+            for (int y = 1; y <= height; y++) {
+                System.arraycopy(plane, grid.index(1, y), slot, k, width);
+                k += width;
+            }
+        }
+    }
+
+    // moves the playhead to frame and waits until it is loaded, returns its slot, call with the lock held
+    private float[] awaitFrame(int frame) {
+        if (frame < 0 || frame >= frameCount)
+            throw new RuntimeException("Frame %s out of range, output has %s frames".formatted(frame, frameCount));
+
+        if (playhead != frame) {
+            playhead = frame;
+            lock.notifyAll();
+        }
+
+        int slot = frame % slots.length;
+        try {
+            while (slotFrames[slot] != frame) {
+                checkError();
+                if (closed)
+                    throw new RuntimeException("Reader is closed");
+
+                lock.wait();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        return slots[slot];
+    }
+
+    private void checkError() {
+        if (error != null)
+            throw new RuntimeException(error);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getFps() {
+        return source.getFps();
+    }
+
+    @Override
+    public Grid.DataType[] getFields() {
+        return source.getFields();
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public void readFrame(int frame, Grid target) {
+        synchronized (lock) {
+            float[] slot = awaitFrame(frame);
+
+            int k = 0;
+            for (Grid.DataType field : source.getFields()) {
+                float[] plane = target.getPlane(field);
+
+                for (int y = 1; y <= height; y++) {
+                    System.arraycopy(slot, k, plane, target.index(1, y), width);
+                    k += width;
+                }
+            }
+        }
+    }
+
+    @Override
+    public float[] readPlane(int frame, Grid.DataType field, float[] target) {
+        int planeSize = width * height;
+        int fieldIndex = Arrays.asList(source.getFields()).indexOf(field);
+        if (fieldIndex < 0)
+            throw new RuntimeException("Field %s is not stored".formatted(field));
+
+        synchronized (lock) {
+            System.arraycopy(awaitFrame(frame), fieldIndex * planeSize, target, 0, planeSize);
+        }
+
+        return target;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        finally {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+import org.watersim.util.Config;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// reads frames written by TextFrameWriter in any order. full.txt is located through full.idx, or by one scan
+// over the file when the run was interrupted before the index was written, so a seek only parses its own frame
+public class TextFrameReader implements FrameSource {
+
+    private static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final Grid.DataType[] FIELDS = Grid.DataType.values();
+
+    private final Config config;
+    private final Path directory;
+
+    // null for separate files
+    private final FileChannel channel;
+    // frame start offsets followed by the end of the last frame
+    private final long[] offsets;
+    private final int frameCount;
+
+    private final Grid scratch;
+    private byte[] bytes = new byte[0];
+
+    public TextFrameReader(Config config, Path directory, boolean separateFiles) {
+        this.config = config;
+        this.directory = directory;
+        scratch = new Grid(config);
+
+        if (separateFiles) {
+            channel = null;
+            offsets = null;
+
+            int count = 0;
+            while (Files.exists(getFramePath(count))) {
+                count++;
+            }
+            frameCount = count;
+            return;
+        }
+
+        Path fullFilePath = directory.resolve("full.txt");
+        try {
+            channel = FileChannel.open(fullFilePath, StandardOpenOption.READ);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        long[] index = readIndex(directory.resolve("full.idx"));
+        offsets = index != null ? index : TextFrameWriter.scanFrames(fullFilePath, Integer.MAX_VALUE);
+        frameCount = offsets.length - 1;
+    }
+
+    private Path getFramePath(int frame) {
+        return directory.resolve("%s.txt".formatted(frame));
+    }
+
+    // the offsets stored by TextFrameWriter.close, or null when they are missing or do not match full.txt
+    private long[] readIndex(Path path) {
+        try {
+            if (!Files.exists(path) || Files.size(path) < TRAILER_SIZE)
+                return null;
+
+            byte[] data = Files.readAllBytes(path);
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.position(data.length - TRAILER_SIZE);
+            int count = buffer.getInt();
+            long size = buffer.getLong();
+            if (buffer.getInt() != TextFrameWriter.INDEX_MAGIC
+                    || (long) count * Long.BYTES + TRAILER_SIZE != data.length
+                    || size != channel.size())
+                return null;
+
+            long[] offsets = new long[count + 1];
+            buffer.position(0);
+            for (int i = 0; i < count; i++) {
+                offsets[i] = buffer.getLong();
+            }
+            offsets[count] = size;
+
+            return offsets;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return config.width;
+    }
+
+    @Override
+    public int getHeight() {
+        return config.height;
+    }
+
+    @Override
+    public int getFps() {
+        return config.fps;
+    }
+
+    @Override
+    public Grid.DataType[] getFields() {
+        return FIELDS;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public void readFrame(int frame, Grid target) {
+        if (frame < 0 || frame >= frameCount)
+            throw new RuntimeException("Frame %s out of range, output has %s frames".formatted(frame, frameCount));
+
+        if (channel == null) {
+            try (var reader = Files.newBufferedReader(getFramePath(frame))) {
+                target.init(reader.lines());
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+
+        // without the "--" line after the frame
+        int length = (int) (offsets[frame + 1] - offsets[frame]) - 3;
+        if (bytes.length < length)
+            bytes = new byte[length];
+        ChannelUtils.readFully(channel, ByteBuffer.wrap(bytes, 0, length), offsets[frame]);
+
+        target.init(new String(bytes, 0, length, StandardCharsets.US_ASCII).lines());
+    }
+
+    @Override
+    public float[] readPlane(int frame, Grid.DataType field, float[] target) {
+        readFrame(frame, scratch);
+
+        float[] plane = scratch.getPlane(field);
+        for (int y = 1; y <= config.height; y++) {
+            System.arraycopy(plane, scratch.index(1, y), target, (y - 1) * config.width, config.width);
+        }
+
+        return target;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+}
@@ -0,0 +1,169 @@
+package org.watersim.io;
+
+import org.watersim.grid.Grid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// decimal text frames, either one file per frame or all frames in full.txt separated by "--".
+// on close full.txt gets an index next to it, full.idx (little endian):
+// long start offset per frame, int frame count, long full.txt size and int INDEX_MAGIC
+public class TextFrameWriter implements FrameWriter {
+
+    static final int INDEX_MAGIC = 0x58444954;
+
+    private final Path directory;
+    private final BufferedWriter writer;
+
+    private int frame;
+
+    // frame start offsets in full.txt and its current size
+    private long[] offsets = new long[64];
+    private long position;
+
+    public TextFrameWriter(Path directory, boolean separateFiles, int startFrame) {
+        this.directory = directory;
+        frame = startFrame;
+
+        if (separateFiles) {
+            writer = null;
+            return;
+        }
+
+        Path fullFilePath = directory.resolve("full.txt");
+        try {
+            if (startFrame > 0) {
+                long[] kept = scanFrames(fullFilePath, startFrame);
+                if (kept.length <= startFrame)
+                    throw new RuntimeException("%s holds fewer than %s frames".formatted(fullFilePath, startFrame));
+
+                offsets = Arrays.copyOf(kept, Math.max(offsets.length, kept.length));
+                position = kept[startFrame];
+
+                try (FileChannel channel = FileChannel.open(fullFilePath, StandardOpenOption.WRITE)) {
+                    channel.truncate(position);
+                }
+
+                writer = Files.newBufferedWriter(fullFilePath, StandardOpenOption.APPEND);
+            }
+            else {
+                Files.deleteIfExists(fullFilePath);
+                writer = Files.newBufferedWriter(fullFilePath);
+            }
+
+            // an index from an earlier run no longer matches
+            Files.deleteIfExists(directory.resolve("full.idx"));
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // start offsets of the first limit complete frames in a full.txt, followed by the offset just past the last one
+    static long[] scanFrames(Path path, int limit) {
+        long[] offsets = new long[64];
+        int found = 0;
+
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(path))) {
+            long position = 0;
+            int lineLength = 0;
+            boolean separator = true;
+
+            int c;
+            while (found < limit && (c = input.read()) >= 0) {
+                position++;
+
+                if (c == '\n') {
+                    if (separator && lineLength == 2) {
+                        if (++found == offsets.length)
+                            offsets = Arrays.copyOf(offsets, found * 2);
+                        offsets[found] = position;
+                    }
+
+                    lineLength = 0;
+                    separator = true;
+                }
+                else {
+                    lineLength++;
+                    separator &= c == '-';
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return Arrays.copyOf(offsets, found + 1);
+    }
+
+    @Override
+    public void write(Grid grid) {
+        if (writer == null) {
+            grid.dump(directory.resolve("%s.txt".formatted(frame)).toString());
+        }
+        else {
+            // the text is ascii, so its length is its size in bytes
+            String text = grid.toString();
+
+            try {
+                writer.write(text);
+                writer.write("--\n");
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            if (frame == offsets.length)
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[frame] = position;
+            position += text.length() + 3;
+        }
+
+        frame++;
+    }
+
+    @Override
+    public void flush() {
+        if (writer == null)
+            return;
+
+        try {
+            writer.flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer == null)
+            return;
+
+        writer.close();
+
+        ByteBuffer index = ByteBuffer.allocate(frame * Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frame; i++) {
+            index.putLong(offsets[i]);
+        }
+        index.putInt(frame);
+        index.putLong(position);
+        index.putInt(INDEX_MAGIC);
+        index.flip();
+
+        try (FileChannel channel = FileChannel.open(directory.resolve("full.idx"),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChannelUtils.writeFully(channel, index);
+        }
+    }
+}
@@ -4,15 +4,30 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.watersim.grid.Grid;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 
 public class Config {
 
+    public enum DecomposerType {
+        EXPLICIT, IMPLICIT
+    }
+
+    public enum InputFormat {
+        TEXT, BINARY
+    }
+
+    public enum OutputFormat {
+        TEXT, BINARY, COMPRESSED
+    }
+
     @NoArgsConstructor
     @Getter @Setter
     private static class SimConfig {
@@ -24,6 +39,35 @@ public class Config {
         boolean swe;
         boolean airy;
         boolean useBuilder;
+        int threads;
+        String decomposer;
+        float decomposerTolerance;
+        int decomposerMaxIterations;
+        int airyDepths;
+        float airyMinDepth;
+        float airyDepthRatio;
+        boolean airySkipUnusedDepths;
+        boolean airyHalfSpectrum;
+        boolean airyWetRegions;
+        int airyRegionMargin;
+        String inputFormat;
+        String outputFormat;
+        List<String> outputFields;
+        boolean synchronousOutput;
+        int outputQueueSize;
+        int keyframeInterval;
+        int compressionLevel;
+        int checkpointInterval;
+        boolean resume;
+        boolean profile;
+        boolean profileJmx;
+        boolean activeTiles;
+        boolean adaptiveTimeStep;
+        float cflNumber;
+        int maxSubSteps;
+        boolean vectorize;
+        boolean fastMath;
+        int fastMathDegree;
     }
 
     @NoArgsConstructor
@@ -32,53 +76,170 @@ public class Config {
         String name;
     }
 
-    // global config variables
-    public static String NAME;
-
-    // sim config variables
-    public static float TIME_STEP;
-    public static float LENGTH;
-    public static boolean SEPARATE_FILES;
-    public static int WIDTH;
-    public static int HEIGHT;
-    public static boolean SWE;
-    public static boolean Airy;
-    public static boolean USE_BUILDER;
-
     // constants
     public static int CELL_SIZE = 1;
     public static float GRAVITY = 9.81f;
 
-    // runtime variables
-    public static int FRAME = 1;
+    // sim config variables, one instance per simulation
+    public final String name;
+    public final int fps;
+    public final float timeStep;
+    public final float length;
+    public final boolean separateFiles;
+    public final int width;
+    public final int height;
+    public final boolean swe;
+    public final boolean airy;
+    public final boolean useBuilder;
+    public final int threads;
+    public final DecomposerType decomposer;
+    public final float decomposerTolerance;
+    public final int decomposerMaxIterations;
+    public final int airyDepths;
+    public final float airyMinDepth;
+    public final float airyDepthRatio;
+    public final boolean airySkipUnusedDepths;
+    public final boolean airyHalfSpectrum;
+    public final boolean airyWetRegions;
+    public final int airyRegionMargin;
+    public final InputFormat inputFormat;
+    public final OutputFormat outputFormat;
+    public final Grid.DataType[] outputFields;
+    public final boolean synchronousOutput;
+    public final int outputQueueSize;
+    public final int keyframeInterval;
+    public final int compressionLevel;
+    public final int checkpointInterval;
+    public final boolean resume;
+    public final boolean profile;
+    public final boolean profileJmx;
+    public final boolean activeTiles;
+    public final boolean adaptiveTimeStep;
+    public final float cflNumber;
+    public final int maxSubSteps;
+    public final boolean vectorize;
+    public final boolean fastMath;
+    public final int fastMathDegree;
 
-    public static void readConfig() {
+    // worker pool shared by every stage of this simulation
+    private Parallel parallel;
+
+    private Config(String name, SimConfig simConfig, int defaultThreads) {
+        this.name = name;
+
+        fps = simConfig.fps;
+        timeStep = 1f / simConfig.fps;
+        length = simConfig.seconds;
+        separateFiles = simConfig.separateFiles;
+        width = simConfig.width;
+        height = simConfig.height;
+        swe = simConfig.swe;
+        airy = simConfig.airy;
+        useBuilder = simConfig.useBuilder;
+        threads = simConfig.threads > 0 ? simConfig.threads : defaultThreads;
+        decomposer = simConfig.decomposer == null
+                ? DecomposerType.EXPLICIT
+                : DecomposerType.valueOf(simConfig.decomposer.toUpperCase());
+        decomposerTolerance = simConfig.decomposerTolerance > 0 ? simConfig.decomposerTolerance : 1e-4f;
+        decomposerMaxIterations = simConfig.decomposerMaxIterations > 0 ? simConfig.decomposerMaxIterations : 256;
+        airyDepths = simConfig.airyDepths > 0 ? simConfig.airyDepths : 4;
+        airyMinDepth = simConfig.airyMinDepth > 0 ? simConfig.airyMinDepth : 1;
+        airyDepthRatio = simConfig.airyDepthRatio > 1 ? simConfig.airyDepthRatio : 4;
+        airySkipUnusedDepths = simConfig.airySkipUnusedDepths;
+        airyHalfSpectrum = simConfig.airyHalfSpectrum;
+        airyWetRegions = simConfig.airyWetRegions;
+        airyRegionMargin = simConfig.airyRegionMargin > 0 ? simConfig.airyRegionMargin : 4;
+        inputFormat = simConfig.inputFormat == null
+                ? InputFormat.TEXT
+                : InputFormat.valueOf(simConfig.inputFormat.toUpperCase());
+        outputFormat = simConfig.outputFormat == null
+                ? OutputFormat.TEXT
+                : OutputFormat.valueOf(simConfig.outputFormat.toUpperCase());
+        outputFields = simConfig.outputFields == null
+                ? Grid.DataType.values()
+                : simConfig.outputFields.stream()
+                        .map(field -> Grid.DataType.valueOf(field.toUpperCase()))
+                        .toArray(Grid.DataType[]::new);
+        synchronousOutput = simConfig.synchronousOutput;
+        outputQueueSize = simConfig.outputQueueSize > 0 ? simConfig.outputQueueSize : 4;
+        keyframeInterval = simConfig.keyframeInterval > 0 ? simConfig.keyframeInterval : 30;
+        compressionLevel = simConfig.compressionLevel > 0 ? Math.min(simConfig.compressionLevel, 9) : 1;
+        checkpointInterval = simConfig.checkpointInterval;
+        resume = simConfig.resume;
+        profile = simConfig.profile || simConfig.profileJmx;
+        profileJmx = simConfig.profileJmx;
+        activeTiles = simConfig.activeTiles;
+        adaptiveTimeStep = simConfig.adaptiveTimeStep;
+        cflNumber = simConfig.cflNumber > 0 ? simConfig.cflNumber : 0.25f;
+        maxSubSteps = simConfig.maxSubSteps > 0 ? simConfig.maxSubSteps : 16;
+        vectorize = simConfig.vectorize && isVectorApiUsable();
+        fastMath = simConfig.fastMath;
+        fastMathDegree = simConfig.fastMathDegree > 0 ? simConfig.fastMathDegree : 7;
+    }
+
+    // the vector kernels need the incubator module, which is only there when the jvm runs with
+    // --add-modules jdk.incubator.vector, without it the scalar loops are used
+    private static boolean isVectorApiUsable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.out.println("vectorize needs --add-modules jdk.incubator.vector, using scalar kernels");
+            return false;
+        }
+        if (!VectorKernels.isSupported()) {
+            System.out.println("vectorize does not support this vector size, using scalar kernels");
+            return false;
+        }
+
+        return true;
+    }
+
+    // name of the scenario selected in grids/input/config.json
+    public static String readName() {
         var mapper = new ObjectMapper();
 
         Path globalConfigPath = Paths.get("grids/input/config.json");
         try (BufferedReader reader = Files.newBufferedReader(globalConfigPath)) {
             GlobalConfig globalConfig = mapper.readValue(reader, GlobalConfig.class);
-            NAME = globalConfig.name;
+            return globalConfig.name;
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
+
+    public static Config read(String name) {
+        return read(name, Runtime.getRuntime().availableProcessors());
+    }
 
-        Path simConfigPath = Paths.get("grids/input/%s/config.json".formatted(NAME));
+    // defaultThreads is used when the scenario does not set threads itself
+    public static Config read(String name, int defaultThreads) {
+        var mapper = new ObjectMapper();
+
+        Path simConfigPath = Paths.get("grids/input/%s/config.json".formatted(name));
         try (BufferedReader reader = Files.newBufferedReader(simConfigPath)) {
-            SimConfig simConfig = mapper.readValue(reader, SimConfig.class);
-
-            TIME_STEP = 1f / simConfig.fps;
-            LENGTH = simConfig.seconds;
-            SEPARATE_FILES = simConfig.separateFiles;
-            WIDTH = simConfig.width;
-            HEIGHT = simConfig.height;
-            SWE = simConfig.swe;
-            Airy = simConfig.airy;
-            USE_BUILDER = simConfig.useBuilder;
+            return new Config(name, mapper.readValue(reader, SimConfig.class), defaultThreads);
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    // a scenario that does not come from grids/input, settings use the keys of its config.json
+    public static Config create(String name, Map<String, Object> settings, int defaultThreads) {
+        var mapper = new ObjectMapper();
+
+        return new Config(name, mapper.convertValue(settings, SimConfig.class), defaultThreads);
+    }
+
+    public synchronized Parallel getParallel() {
+        if (parallel == null)
+            parallel = new Parallel(threads);
+
+        return parallel;
+    }
+
+    // stops the worker pool once the simulation is done
+    public synchronized void close() {
+        if (parallel != null)
+            parallel.shutdown();
+    }
 }
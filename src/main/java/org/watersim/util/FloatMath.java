@@ -0,0 +1,65 @@
+package org.watersim.util;
+
+// float exp without the round trip through double Math.exp, for the per cell damping and diffusion coefficients.
+// x = k ln2 + r with |r| <= ln2 / 2, e^r from its Taylor polynomial and scaled by 2^k. the degree sets the accuracy,
+// the relative error is about 3e-6 at degree 5, 2.5e-7 at 6 and within a float ulp from 7 on
+public class FloatMath {
+
+    public static final int MIN_DEGREE = 3;
+    public static final int MAX_DEGREE = 9;
+
+    // relative error of exp against Math.exp per degree from MIN_DEGREE on, a little above the measured one
+    private static final double[] ERROR_BOUNDS = {1e-3, 7e-5, 4e-6, 3e-7, 1.5e-7, 1.5e-7, 1.5e-7};
+
+    private static final float LOG2_E = 1.44269504f;
+    // ln2 split so that k * LN2_HIGH is exact for the k that occur
+    private static final float LN2_HIGH = 0.693145752f;
+    private static final float LN2_LOW = 1.42860677e-6f;
+
+    // beyond these e^x is not a finite or nonzero float
+    private static final float MAX_X = 88.7228394f;
+    private static final float MIN_X = -103.972084f;
+
+    // 1 / i! for i = degree down to 0, in Horner order
+    private final float[] coefficients;
+
+    public FloatMath(int degree) {
+        degree = Math.clamp(degree, MIN_DEGREE, MAX_DEGREE);
+
+        coefficients = new float[degree + 1];
+        double factorial = 1;
+        for (int i = 0; i <= degree; i++) {
+            if (i > 0)
+                factorial *= i;
+
+            coefficients[degree - i] = (float) (1 / factorial);
+        }
+    }
+
+    public static double getErrorBound(int degree) {
+        return ERROR_BOUNDS[Math.clamp(degree, MIN_DEGREE, MAX_DEGREE) - MIN_DEGREE];
+    }
+
+    public float exp(float x) {
+        if (x > MAX_X)
+            return Float.POSITIVE_INFINITY;
+        if (x < MIN_X)
+            return 0;
+        if (x != x)
+            return x;
+
+        int k = Math.round(x * LOG2_E);
+        float r = x - k * LN2_HIGH - k * LN2_LOW;
+
+        float p = coefficients[0];
+        for (int i = 1; i < coefficients.length; i++) {
+            p = p * r + coefficients[i];
+        }
+
+        // 2^k straight from the exponent bits while it is a normal float
+        if (k >= -126 && k <= 127)
+            return p * Float.intBitsToFloat((k + 127) << 23);
+
+        return Math.scalb(p, k);
+    }
+}
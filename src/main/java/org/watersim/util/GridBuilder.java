@@ -4,8 +4,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.watersim.grid.Cell;
 import org.watersim.grid.Grid;
+import org.watersim.io.GridSnapshot;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -15,9 +15,6 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
-import static org.watersim.util.Config.HEIGHT;
-import static org.watersim.util.Config.WIDTH;
-
 public class GridBuilder {
 
     @NoArgsConstructor
@@ -40,43 +37,47 @@ public class GridBuilder {
         List<BuilderUnit> wall;
     }
 
-    public static void buildGrid() {
+    public static void buildGrid(Config config) {
         var mapper = new ObjectMapper();
 
-        Path builderPath = Paths.get("grids/input/%s/builder.json".formatted(Config.NAME));
-        BuilderConfig config;
+        Path builderPath = Paths.get("grids/input/%s/builder.json".formatted(config.name));
+        BuilderConfig builderConfig;
         try (BufferedReader reader = Files.newBufferedReader(builderPath)) {
-            config = mapper.readValue(reader, BuilderConfig.class);
+            builderConfig = mapper.readValue(reader, BuilderConfig.class);
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        var waterHeights = new Grid();
-        var wallHeights = new Grid();
+        var waterHeights = new Grid(config);
+        var wallHeights = new Grid(config);
 
-        for (int y = 1; y <= HEIGHT; y++) {
-            for (int x = 1; x <= WIDTH; x++) {
-                Cell waterCell = waterHeights.getCell(x, y);
-                Cell wallCell = wallHeights.getCell(x, y);
+        for (int y = 1; y <= config.height; y++) {
+            for (int x = 1; x <= config.width; x++) {
+                int i = waterHeights.index(x, y);
 
-                for (BuilderUnit unit : config.water) {
+                for (BuilderUnit unit : builderConfig.water) {
                     if (unit.coorsInArea(x, y)) {
-                        waterCell.h = unit.height;
+                        waterHeights.h[i] = unit.height;
                     }
                 }
-                for (BuilderUnit unit : config.wall) {
+                for (BuilderUnit unit : builderConfig.wall) {
                     if (unit.coorsInArea(x, y)) {
-                        wallCell.h = unit.height;
+                        wallHeights.h[i] = unit.height;
                         if (unit.height > 0) {
-                            waterCell.h = 0;
+                            waterHeights.h[i] = 0;
                         }
                     }
                 }
             }
         }
 
-        Path dataPath = Paths.get("grids/input/%s/data.txt".formatted(Config.NAME));
+        if (config.inputFormat == Config.InputFormat.BINARY) {
+            GridSnapshot.write(Paths.get("grids/input/%s/data.bin".formatted(config.name)), waterHeights, wallHeights);
+            return;
+        }
+
+        Path dataPath = Paths.get("grids/input/%s/data.txt".formatted(config.name));
         try {
             Files.deleteIfExists(dataPath);
         } catch (IOException e) {
@@ -0,0 +1,84 @@
+package org.watersim.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+public class Parallel {
+
+    private final int threads;
+    private ForkJoinPool pool;
+
+    private static class RowTask extends RecursiveAction {
+
+        private final int from, to;
+        private final int grain;
+        private final IntConsumer row;
+
+        RowTask(int from, int to, int grain, IntConsumer row) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.row = row;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < grain) {
+                for (int y = from; y <= to; y++) {
+                    row.accept(y);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowTask(from, middle, grain, row), new RowTask(middle + 1, to, grain, row));
+        }
+    }
+
+    public Parallel(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(threads);
+
+        return pool;
+    }
+
+    // runs row(y) for every y in [from, to], split into row bands over the worker pool
+    public void forEachRow(int from, int to, IntConsumer row) {
+        if (threads == 1 || to <= from) {
+            for (int y = from; y <= to; y++) {
+                row.accept(y);
+            }
+            return;
+        }
+
+        // a few bands per thread so uneven rows still balance
+        int grain = Math.max(1, (to - from + 1) / (threads * 4));
+        getPool().invoke(new RowTask(from, to, grain, row));
+    }
+
+    // runs task(i) for every i in [from, to] as separate pool tasks, for a few large independent jobs
+    public void forEach(int from, int to, IntConsumer task) {
+        if (threads == 1 || to <= from) {
+            for (int i = from; i <= to; i++) {
+                task.accept(i);
+            }
+            return;
+        }
+
+        getPool().invoke(new RowTask(from, to, 1, task));
+    }
+
+    public synchronized void shutdown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+}
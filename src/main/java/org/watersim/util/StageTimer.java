@@ -0,0 +1,343 @@
+package org.watersim.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// wall clock time of every stage of every frame, and the bytes allocated per frame,
+// does nothing unless profile is set in the scenario config
+public class StageTimer implements StageTimerMXBean {
+
+    public enum Stage {
+        DECOMPOSE, VELOCITY, BULK_FLOW, AIRY, TRANSPORT, HEIGHT_UPDATE, OUTPUT, CHECKPOINT
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    // the last column holds the whole frame
+    private static final int TOTAL = STAGES.length;
+
+    // histogram bucket b counts durations in [2^(b-1), 2^b) microseconds
+    private static final int BUCKETS = 32;
+
+    private final boolean enabled;
+    private final String name;
+
+    private final com.sun.management.ThreadMXBean threadBean;
+    private ObjectName jmxName;
+
+    // one row per recorded frame
+    private int[] frames = new int[256];
+    private long[][] nanos = new long[256][];
+    private long[] allocated = new long[256];
+    private int count = 0;
+
+    private final long[] current = new long[STAGES.length + 1];
+    private long frameStart;
+    private long lapStart;
+    private long allocatedStart;
+
+    public StageTimer(Config config) {
+        enabled = config.profile;
+        name = config.name;
+
+        // counts every thread of the JVM, so with several simulations in one JVM they share the figure
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled())
+            threadBean = bean;
+        else
+            threadBean = null;
+
+        if (config.profileJmx) {
+            try {
+                jmxName = new ObjectName("org.watersim:type=StageTimer,name=" + ObjectName.quote(name));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, jmxName);
+            }
+            catch (JMException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void startFrame() {
+        if (!enabled)
+            return;
+
+        Arrays.fill(current, 0);
+        allocatedStart = threadBean == null ? 0 : threadBean.getTotalThreadAllocatedBytes();
+        frameStart = System.nanoTime();
+        lapStart = frameStart;
+    }
+
+    // charges the time since the previous lap, or since startFrame, to stage
+    public void lap(Stage stage) {
+        if (!enabled)
+            return;
+
+        long now = System.nanoTime();
+        current[stage.ordinal()] += now - lapStart;
+        lapStart = now;
+    }
+
+    public void endFrame(int frame) {
+        if (!enabled)
+            return;
+
+        current[TOTAL] = System.nanoTime() - frameStart;
+        long bytes = threadBean == null ? -1 : threadBean.getTotalThreadAllocatedBytes() - allocatedStart;
+
+        synchronized (this) {
+            if (count == frames.length) {
+                frames = Arrays.copyOf(frames, count * 2);
+                nanos = Arrays.copyOf(nanos, count * 2);
+                allocated = Arrays.copyOf(allocated, count * 2);
+            }
+
+            frames[count] = frame;
+            nanos[count] = current.clone();
+            allocated[count] = bytes;
+            count++;
+        }
+    }
+
+    // writes <name>.csv with a row per frame and <name>.json with the summary and histograms
+    public void export(Path directory) {
+        if (!enabled)
+            return;
+
+        try {
+            Files.createDirectories(directory);
+
+            try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(name + ".csv"))) {
+                writer.write("frame");
+                for (Stage stage : STAGES) {
+                    writer.write("," + stage.name().toLowerCase() + "_ms");
+                }
+                writer.write(",total_ms,allocated_bytes\n");
+
+                synchronized (this) {
+                    for (int i = 0; i < count; i++) {
+                        writer.write(String.valueOf(frames[i]));
+                        for (long value : nanos[i]) {
+                            writer.write("," + toMillis(value));
+                        }
+                        writer.write("," + allocated[i] + "\n");
+                    }
+                }
+            }
+
+            new ObjectMapper().writerWithDefaultPrettyPrinter()
+                    .writeValue(directory.resolve(name + ".json").toFile(), getSummary());
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized Map<String, Object> getSummary() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (int column = 0; column <= TOTAL; column++) {
+            long[] sorted = getSorted(column);
+
+            Map<String, Object> stage = new LinkedHashMap<>();
+            stage.put("meanMs", toMillis(mean(sorted)));
+            stage.put("p50Ms", toMillis(percentile(sorted, 50)));
+            stage.put("p90Ms", toMillis(percentile(sorted, 90)));
+            stage.put("p99Ms", toMillis(percentile(sorted, 99)));
+            stage.put("maxMs", toMillis(percentile(sorted, 100)));
+            stage.put("totalMs", toMillis(mean(sorted) * sorted.length));
+            stage.put("histogram", histogram(sorted));
+
+            stages.put(getColumnName(column), stage);
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("name", name);
+        summary.put("frames", count);
+        summary.put("meanAllocatedBytes", getMeanAllocatedBytes());
+        summary.put("stages", stages);
+
+        return summary;
+    }
+
+    // one line per stage with its share of the frame time
+    public synchronized String summaryTable() {
+        var builder = new StringBuilder("%-14s %9s %9s %9s %9s %6s\n"
+                .formatted("stage", "mean ms", "p50 ms", "p99 ms", "max ms", "share"));
+
+        double frameTotal = Math.max(1, mean(getSorted(TOTAL)));
+        for (int column = 0; column <= TOTAL; column++) {
+            long[] sorted = getSorted(column);
+
+            builder.append("%-14s %9.3f %9.3f %9.3f %9.3f %5.1f%%\n".formatted(getColumnName(column).toLowerCase(),
+                    toMillis(mean(sorted)), toMillis(percentile(sorted, 50)), toMillis(percentile(sorted, 99)),
+                    toMillis(percentile(sorted, 100)), 100 * mean(sorted) / frameTotal));
+        }
+
+        return builder.toString();
+    }
+
+    public void close() {
+        if (jmxName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxName);
+        }
+        catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+        jmxName = null;
+    }
+
+    @Override
+    public synchronized int getFrameCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getStages() {
+        String[] names = new String[TOTAL + 1];
+        for (int column = 0; column <= TOTAL; column++) {
+            names[column] = getColumnName(column);
+        }
+
+        return names;
+    }
+
+    @Override
+    public synchronized double[] getMeanMillis() {
+        double[] values = new double[TOTAL + 1];
+        for (int column = 0; column <= TOTAL; column++) {
+            values[column] = toMillis(mean(getSorted(column)));
+        }
+
+        return values;
+    }
+
+    @Override
+    public double[] getP50Millis() {
+        return getPercentileMillis(50);
+    }
+
+    @Override
+    public double[] getP99Millis() {
+        return getPercentileMillis(99);
+    }
+
+    @Override
+    public double[] getMaxMillis() {
+        return getPercentileMillis(100);
+    }
+
+    @Override
+    public synchronized double[] getLastFrameMillis() {
+        double[] values = new double[TOTAL + 1];
+        if (count > 0) {
+            for (int column = 0; column <= TOTAL; column++) {
+                values[column] = toMillis(nanos[count - 1][column]);
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public synchronized double getMeanAllocatedBytes() {
+        if (count == 0 || threadBean == null)
+            return -1;
+
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += allocated[i];
+        }
+
+        return sum / count;
+    }
+
+    private synchronized double[] getPercentileMillis(double percentile) {
+        double[] values = new double[TOTAL + 1];
+        for (int column = 0; column <= TOTAL; column++) {
+            values[column] = toMillis(percentile(getSorted(column), percentile));
+        }
+
+        return values;
+    }
+
+    private static String getColumnName(int column) {
+        return column == TOTAL ? "TOTAL" : STAGES[column].name();
+    }
+
+    private long[] getSorted(int column) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = nanos[i][column];
+        }
+        Arrays.sort(values);
+
+        return values;
+    }
+
+    private static double mean(long[] values) {
+        if (values.length == 0)
+            return 0;
+
+        double sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+
+        return sum / values.length;
+    }
+
+    // nearest rank percentile of sorted values
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return 0;
+
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+    }
+
+    // the non empty buckets as {upToMicros, count}
+    private static List<Map<String, Long>> histogram(long[] sorted) {
+        long[] counts = new long[BUCKETS];
+        for (long value : sorted) {
+            long micros = value / 1000;
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            counts[Math.min(bucket, BUCKETS - 1)]++;
+        }
+
+        List<Map<String, Long>> buckets = new ArrayList<>();
+        for (int b = 0; b < BUCKETS; b++) {
+            if (counts[b] == 0)
+                continue;
+
+            Map<String, Long> bucket = new LinkedHashMap<>();
+            bucket.put("upToMicros", 1L << b);
+            bucket.put("count", counts[b]);
+            buckets.add(bucket);
+        }
+
+        return buckets;
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1_000_000;
+    }
+}
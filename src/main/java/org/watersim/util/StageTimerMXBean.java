@@ -0,0 +1,21 @@
+package org.watersim.util;
+
+// live view of a StageTimer, every array is indexed like getStages
+public interface StageTimerMXBean {
+
+    int getFrameCount();
+
+    String[] getStages();
+
+    double[] getMeanMillis();
+
+    double[] getP50Millis();
+
+    double[] getP99Millis();
+
+    double[] getMaxMillis();
+
+    double[] getLastFrameMillis();
+
+    double getMeanAllocatedBytes();
+}
@@ -0,0 +1,118 @@
+package org.watersim.util;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+
+// SIMD versions of the arithmetic row kernels. every lane does the float operations of the scalar loop in the
+// same order, walls and dry cells are masked instead of skipped, so the results are identical.
+// only used when Config.vectorize is set, this class needs --add-modules jdk.incubator.vector to load.
+// each kernel covers whole vectors from the start of the range and returns where the scalar loop has to continue
+public class VectorKernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = FLOATS.withLanes(int.class);
+    // flow bits are loaded as bytes and widened, at least 64 bits are loaded
+    private static final VectorSpecies<Byte> BYTES = FLOATS.length() <= ByteVector.SPECIES_64.length()
+            ? ByteVector.SPECIES_64
+            : ByteVector.SPECIES_128;
+
+    // false for vector sizes the flow bit loads do not cover, the scalar loops are used then
+    public static boolean isSupported() {
+        return FLOATS.length() <= BYTES.length();
+    }
+
+    // divQ and divU of grid for the cells [1, width] of row y
+    public static int divergenceRow(Grid grid, int y) {
+        float[] qx = grid.qx, qy = grid.qy, ux = grid.ux, uy = grid.uy;
+        int stride = grid.stride;
+        float cellSize = Config.CELL_SIZE;
+
+        int x = 1;
+        for (; x + FLOATS.length() - 1 <= grid.width; x += FLOATS.length()) {
+            int i = grid.index(x, y);
+
+            var dqx = FloatVector.fromArray(FLOATS, qx, i).sub(FloatVector.fromArray(FLOATS, qx, i - 1)).div(cellSize);
+            var dqy = FloatVector.fromArray(FLOATS, qy, i).sub(FloatVector.fromArray(FLOATS, qy, i - stride)).div(cellSize);
+            dqx.add(dqy).intoArray(grid.divQ, i);
+
+            var dux = FloatVector.fromArray(FLOATS, ux, i).sub(FloatVector.fromArray(FLOATS, ux, i - 1)).div(cellSize);
+            var duy = FloatVector.fromArray(FLOATS, uy, i).sub(FloatVector.fromArray(FLOATS, uy, i - stride)).div(cellSize);
+            dux.add(duy).intoArray(grid.divU, i);
+        }
+
+        return x;
+    }
+
+    // one explicit diffusion iteration of h, qx and qy from bulk into newBulk for the cells [from, to] of row y,
+    // like Decomposer.diffuseRow
+    public static int diffuseRow(int y, int from, int to, Grid grid, WallGrid wallGrid, Grid bulk, Grid newBulk,
+                                 float[] coefficientsX, float[] coefficientsY, float timeStep) {
+        int stride = bulk.stride;
+        byte[] flow = wallGrid.getFlowBits();
+        float cellSizeSquared = (float) Math.pow(Config.CELL_SIZE, 2);
+        var zero = FloatVector.zero(FLOATS);
+
+        int x = from;
+        for (; x + FLOATS.length() - 1 <= to; x += FLOATS.length()) {
+            int cur = bulk.index(x, y);
+            int left = cur - 1;
+            int right = cur + 1;
+            int up = cur - stride;
+            int down = cur + stride;
+
+            var bits = (IntVector) ByteVector.fromArray(BYTES, flow, cur).convertShape(VectorOperators.B2I, INTS, 0);
+            VectorMask<Float> canFlowLeft = bits.and(WallGrid.LEFT).compare(VectorOperators.NE, 0).cast(FLOATS);
+            VectorMask<Float> canFlowRight = bits.and(WallGrid.RIGHT).compare(VectorOperators.NE, 0).cast(FLOATS);
+            VectorMask<Float> canFlowUp = bits.and(WallGrid.UP).compare(VectorOperators.NE, 0).cast(FLOATS);
+            VectorMask<Float> canFlowDown = bits.and(WallGrid.DOWN).compare(VectorOperators.NE, 0).cast(FLOATS);
+
+            // cells without water and wall cells keep their values
+            VectorMask<Float> active = FloatVector.fromArray(FLOATS, grid.h, cur).compare(VectorOperators.NE, 0)
+                    .andNot(FloatVector.fromArray(FLOATS, wallGrid.h, cur).compare(VectorOperators.LT, 0));
+
+            var coefficientX = FloatVector.fromArray(FLOATS, coefficientsX, cur);
+            var coefficientLeft = FloatVector.fromArray(FLOATS, coefficientsX, left);
+            var coefficientRight = FloatVector.fromArray(FLOATS, coefficientsX, right);
+            var coefficientY = FloatVector.fromArray(FLOATS, coefficientsY, cur);
+            var coefficientUp = FloatVector.fromArray(FLOATS, coefficientsY, up);
+            var coefficientDown = FloatVector.fromArray(FLOATS, coefficientsY, down);
+
+            // h
+            var h = FloatVector.fromArray(FLOATS, bulk.h, cur);
+            var leftH = zero.blend(FloatVector.fromArray(FLOATS, bulk.h, left).sub(h).mul(coefficientLeft), canFlowLeft);
+            var rightH = zero.blend(FloatVector.fromArray(FLOATS, bulk.h, right).sub(h).mul(coefficientX), canFlowRight);
+            var upH = zero.blend(FloatVector.fromArray(FLOATS, bulk.h, up).sub(h).mul(coefficientUp), canFlowUp);
+            var downH = zero.blend(FloatVector.fromArray(FLOATS, bulk.h, down).sub(h).mul(coefficientY), canFlowDown);
+            var changeH = leftH.add(rightH).add(upH).add(downH).div(cellSizeSquared).mul(timeStep);
+
+            // qx only diffuses along x and qy only along y, the other two terms are zero
+            var qx = FloatVector.fromArray(FLOATS, bulk.qx, cur);
+            var leftQX = zero.blend(FloatVector.fromArray(FLOATS, bulk.qx, left).sub(qx)
+                    .mul(coefficientLeft.add(coefficientX)).div(2), canFlowLeft);
+            var rightQX = zero.blend(FloatVector.fromArray(FLOATS, bulk.qx, right).sub(qx)
+                    .mul(coefficientRight.add(coefficientX)).div(2), canFlowRight);
+            var changeQX = leftQX.add(rightQX).add(zero).add(zero).div(cellSizeSquared).mul(timeStep);
+
+            var qy = FloatVector.fromArray(FLOATS, bulk.qy, cur);
+            var upQY = zero.blend(FloatVector.fromArray(FLOATS, bulk.qy, up).sub(qy)
+                    .mul(coefficientUp.add(coefficientY)).div(2), canFlowUp);
+            var downQY = zero.blend(FloatVector.fromArray(FLOATS, bulk.qy, down).sub(qy)
+                    .mul(coefficientDown.add(coefficientY)).div(2), canFlowDown);
+            var changeQY = zero.add(zero).add(upQY).add(downQY).div(cellSizeSquared).mul(timeStep);
+
+            FloatVector.fromArray(FLOATS, newBulk.h, cur).add(changeH, active).intoArray(newBulk.h, cur);
+            FloatVector.fromArray(FLOATS, newBulk.qx, cur).add(zero.blend(changeQX, canFlowRight), active)
+                    .intoArray(newBulk.qx, cur);
+            FloatVector.fromArray(FLOATS, newBulk.qy, cur).add(zero.blend(changeQY, canFlowDown), active)
+                    .intoArray(newBulk.qy, cur);
+        }
+
+        return x;
+    }
+}
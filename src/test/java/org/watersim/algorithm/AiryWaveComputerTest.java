@@ -0,0 +1,73 @@
+package org.watersim.algorithm;
+
+import org.junit.jupiter.api.Test;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+import org.watersim.util.TestConfigs;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AiryWaveComputerTest {
+
+    private static final int SIZE = 128;
+
+    // a lake as first and last cell x and y
+    private static final int[] LAKE = {40, 60, 90, 100};
+
+    @Test
+    void regionsReadTheirOwnDepth() {
+        Config config = TestConfigs.create(SIZE, SIZE, Map.of("airyWetRegions", true));
+
+        // the same lake once with row 1 dry and once with a strip of water between two reference depths along it, which only changes
+        // the lake if its region reads the depth of row 1
+        Grid lakeOnly = computeSurfaceQ(config, false);
+        Grid withStrip = computeSurfaceQ(config, true);
+
+        boolean flow = false;
+        for (int y = LAKE[1]; y <= LAKE[3]; y++) {
+            for (int x = LAKE[0]; x <= LAKE[2]; x++) {
+                int i = lakeOnly.index(x, y);
+                flow |= lakeOnly.qx[i] != 0;
+
+                String message = "cell %s %s".formatted(x, y);
+                assertTrue(Float.compare(lakeOnly.qx[i], withStrip.qx[i]) == 0, message);
+                assertTrue(Float.compare(lakeOnly.qy[i], withStrip.qy[i]) == 0, message);
+            }
+        }
+        assertTrue(flow, "no waves in the lake");
+
+        config.close();
+    }
+
+    private static Grid computeSurfaceQ(Config config, boolean strip) {
+        Grid grid = new Grid(config);
+        Grid surface = new Grid(config);
+        for (int y = LAKE[1]; y <= LAKE[3]; y++) {
+            for (int x = LAKE[0]; x <= LAKE[2]; x++) {
+                int i = grid.index(x, y);
+                grid.h[i] = 4;
+
+                // a bump in the middle of the lake
+                float dx = x - (LAKE[0] + LAKE[2]) / 2f;
+                float dy = y - (LAKE[1] + LAKE[3]) / 2f;
+                surface.h[i] = (float) (0.3 * Math.exp(-(dx * dx + dy * dy) / 40));
+            }
+        }
+
+        for (int x = 1; x <= SIZE && strip; x++) {
+            grid.h[grid.index(x, 1)] = 2;
+        }
+
+        WallGrid wallGrid = new WallGrid(config);
+        wallGrid.updateConnectivity();
+
+        AiryWaveComputer airyWaveComputer = new AiryWaveComputer(config);
+        Grid newSurface = new Grid(config);
+        airyWaveComputer.computeSurfaceQ(grid, surface, surface, wallGrid, newSurface, config.timeStep);
+
+        return newSurface;
+    }
+}
@@ -0,0 +1,174 @@
+package org.watersim.algorithm;
+
+import jdk.incubator.vector.FloatVector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+import org.watersim.util.FloatMath;
+import org.watersim.util.TestConfigs;
+import org.watersim.util.VectorKernels;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecomposerTest {
+
+    private static final int LANES = FloatVector.SPECIES_PREFERRED.length();
+    private static final int HEIGHT = 6;
+
+    private final Random random = new Random(42);
+
+    // widths around and between multiples of the lane count, so every row has a scalar tail of some length
+    private static List<Integer> widths() {
+        return IntStream.of(1, 2, LANES - 1, LANES, LANES + 1, 2 * LANES - 1, 2 * LANES + 3, 3 * LANES + LANES / 2, 61)
+                .filter(w -> w > 0)
+                .distinct()
+                .boxed()
+                .toList();
+    }
+
+    private static Config config(int width, boolean vectorize) {
+        return TestConfigs.create(width, HEIGHT, Map.of("vectorize", vectorize));
+    }
+
+    @BeforeEach
+    void setUp() {
+        assertTrue(VectorKernels.isSupported(), "vector size not covered by the kernels");
+    }
+
+    @Test
+    void vectorizedDiffusionRowMatchesScalarLoop() {
+        for (int width : widths()) {
+            Config scalarConfig = config(width, false);
+            Config vectorConfig = config(width, true);
+            assertTrue(vectorConfig.vectorize, "run the tests with --add-modules jdk.incubator.vector");
+
+            var inputs = randomInputs(scalarConfig);
+
+            // full rows and partial spans like the ones of active tiles
+            for (int y = 1; y <= HEIGHT; y++) {
+                int from = y % 2 == 0 ? 1 : 1 + random.nextInt(width);
+                int to = y % 3 == 0 ? width : from + random.nextInt(width - from + 1);
+
+                Grid scalar = inputs.bulk.copy();
+                Grid vector = inputs.bulk.copy();
+                new Decomposer(scalarConfig).diffuseRow(y, from, to, inputs.grid, inputs.wallGrid, inputs.bulk, scalar,
+                        inputs.coefficientsX, inputs.coefficientsY);
+                new Decomposer(vectorConfig).diffuseRow(y, from, to, inputs.grid, inputs.wallGrid, inputs.bulk, vector,
+                        inputs.coefficientsX, inputs.coefficientsY);
+
+                String message = "width %s, row %s, cells %s to %s".formatted(width, y, from, to);
+                assertArrayEquals(scalar.h, vector.h, message);
+                assertArrayEquals(scalar.qx, vector.qx, message);
+                assertArrayEquals(scalar.qy, vector.qy, message);
+            }
+
+            scalarConfig.close();
+            vectorConfig.close();
+        }
+    }
+
+    @Test
+    void diffusionKernelStopsBeforePartialVector() {
+        for (int width : widths()) {
+            Config vectorConfig = config(width, true);
+            var inputs = randomInputs(vectorConfig);
+
+            Grid newBulk = inputs.bulk.copy();
+            int end = VectorKernels.diffuseRow(1, 1, width, inputs.grid, inputs.wallGrid, inputs.bulk, newBulk,
+                    inputs.coefficientsX, inputs.coefficientsY, Decomposer.ITERATION_TIME_STEP);
+
+            assertTrue(end >= 1 && end <= width + 1 && (end - 1) % LANES == 0 && width + 1 - end < LANES,
+                    "width %s ended at %s".formatted(width, end));
+
+            // cells from end on are left for the scalar loop
+            for (int x = end; x <= width; x++) {
+                int i = newBulk.index(x, 1);
+                assertTrue(newBulk.h[i] == inputs.bulk.h[i] && newBulk.qx[i] == inputs.bulk.qx[i]
+                        && newBulk.qy[i] == inputs.bulk.qy[i], "width %s wrote cell %s".formatted(width, x));
+            }
+
+            vectorConfig.close();
+        }
+    }
+
+    @Test
+    void fastMathDiffusionCoefficientsStayCloseToMathExp() {
+        Config mathConfig = config(LANES, false);
+        Decomposer math = new Decomposer(mathConfig);
+
+        for (int degree = FloatMath.MIN_DEGREE; degree <= FloatMath.MAX_DEGREE; degree++) {
+            Config fastConfig = TestConfigs.create(LANES, HEIGHT, Map.of("fastMath", true, "fastMathDegree", degree));
+            Decomposer fast = new Decomposer(fastConfig);
+
+            // the exponent gets the float rounding of the squared gradient on top of the error of exp itself
+            double bound = FloatMath.getErrorBound(degree) + 5e-7;
+            double worst = 0;
+
+            for (int i = 0; i < 200_000; i++) {
+                float curH = random.nextFloat() < 0.1f ? 0 : 20 * random.nextFloat();
+                float otherH = random.nextFloat() < 0.1f ? curH : 20 * random.nextFloat();
+
+                float expected = math.getDiffusionCoefficient(curH, otherH);
+                float actual = fast.getDiffusionCoefficient(curH, otherH);
+                if (expected == 0) {
+                    assertTrue(actual == 0, "heights %s and %s gave %s".formatted(curH, otherH, actual));
+                    continue;
+                }
+
+                worst = Math.max(worst, Math.abs(actual - expected) / expected);
+            }
+
+            assertTrue(worst <= bound, "degree %s off by %s".formatted(degree, worst));
+            fastConfig.close();
+        }
+
+        mathConfig.close();
+    }
+
+    private record Inputs(Grid grid, WallGrid wallGrid, Grid bulk, float[] coefficientsX, float[] coefficientsY) {
+    }
+
+    // water with dry cells, walls and cells marked negative in the wall grid, which the diffusion skips
+    private Inputs randomInputs(Config config) {
+        var grid = new Grid(config);
+        var wallGrid = new WallGrid(config);
+        var bulk = new Grid(config);
+        float[] coefficientsX = new float[grid.h.length];
+        float[] coefficientsY = new float[grid.h.length];
+
+        for (int y = 1; y <= config.height; y++) {
+            for (int x = 1; x <= config.width; x++) {
+                int i = grid.index(x, y);
+
+                float roll = random.nextFloat();
+                if (roll < 0.15f)
+                    wallGrid.h[i] = 1;
+                else if (roll < 0.2f)
+                    wallGrid.h[i] = -1;
+
+                grid.h[i] = random.nextFloat() < 0.2f ? 0 : 1 + 4 * random.nextFloat();
+            }
+        }
+        wallGrid.updateConnectivity();
+
+        // negative zeros turn positive when a zero change is added, so they show cells the masks should skip
+        for (int i = 0; i < grid.h.length; i++) {
+            boolean negativeZero = random.nextFloat() < 0.2f;
+            bulk.h[i] = negativeZero ? -0f : 5 * random.nextFloat();
+            bulk.qx[i] = negativeZero ? -0f : random.nextFloat() - 0.5f;
+            bulk.qy[i] = negativeZero ? -0f : random.nextFloat() - 0.5f;
+            coefficientsX[i] = random.nextFloat();
+            coefficientsY[i] = random.nextFloat();
+        }
+
+        return new Inputs(grid, wallGrid, bulk, coefficientsX, coefficientsY);
+    }
+}
@@ -0,0 +1,76 @@
+package org.watersim.algorithm;
+
+import org.junit.jupiter.api.Test;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+import org.watersim.util.FloatMath;
+import org.watersim.util.TestConfigs;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SurfaceTransporterTest {
+
+    private static final int SIZE = 48;
+
+    @Test
+    void fastMathDampingStaysCloseToMathExp() {
+        Random random = new Random(3);
+        Config mathConfig = TestConfigs.create(SIZE, SIZE, Map.of());
+
+        Grid surface = new Grid(mathConfig);
+        Grid newSurface = new Grid(mathConfig);
+        Grid bulk = new Grid(mathConfig);
+        Grid newBulk = new Grid(mathConfig);
+        for (int i = 0; i < surface.h.length; i++) {
+            surface.h[i] = random.nextFloat() - 0.5f;
+            newSurface.qx[i] = random.nextFloat() - 0.5f;
+            newSurface.qy[i] = random.nextFloat() - 0.5f;
+            bulk.ux[i] = 10 * (random.nextFloat() - 0.5f);
+            bulk.uy[i] = 10 * (random.nextFloat() - 0.5f);
+            newBulk.ux[i] = 10 * (random.nextFloat() - 0.5f);
+            newBulk.uy[i] = 10 * (random.nextFloat() - 0.5f);
+        }
+        WallGrid wallGrid = new WallGrid(mathConfig);
+        wallGrid.updateConnectivity();
+
+        Grid expected = damp(mathConfig, surface, newSurface, bulk, newBulk, wallGrid);
+
+        for (int degree = FloatMath.MIN_DEGREE; degree <= FloatMath.MAX_DEGREE; degree++) {
+            Config fastConfig = TestConfigs.create(SIZE, SIZE, Map.of("fastMath", true, "fastMathDegree", degree));
+            Grid actual = damp(fastConfig, surface, newSurface, bulk, newBulk, wallGrid);
+
+            // the product is rounded on both paths, so half an ulp on each side on top of the error of exp
+            double bound = FloatMath.getErrorBound(degree) + 1.2e-7;
+
+            for (int y = 1; y <= SIZE; y++) {
+                for (int x = 1; x <= SIZE; x++) {
+                    int i = expected.index(x, y);
+                    int cellX = x, cellY = y, cellDegree = degree;
+                    Supplier<String> message = () -> "degree %s, cell %s %s".formatted(cellDegree, cellX, cellY);
+
+                    assertTrue(Math.abs(actual.h[i] - expected.h[i]) <= bound * Math.abs(expected.h[i]), message);
+                    assertTrue(Math.abs(actual.qx[i] - expected.qx[i]) <= bound * Math.abs(expected.qx[i]), message);
+                    assertTrue(Math.abs(actual.qy[i] - expected.qy[i]) <= bound * Math.abs(expected.qy[i]), message);
+                }
+            }
+
+            fastConfig.close();
+        }
+
+        mathConfig.close();
+    }
+
+    // the damped surface the transport advects, with divergences of the random velocities
+    private static Grid damp(Config config, Grid surface, Grid newSurface, Grid bulk, Grid newBulk, WallGrid wallGrid) {
+        Workspace workspace = new Workspace(config);
+        new SurfaceTransporter(config).transportSurface(surface, newSurface, bulk.copy(), newBulk.copy(), wallGrid,
+                new Grid(config), workspace, config.timeStep);
+
+        return workspace.dampedSurface;
+    }
+}
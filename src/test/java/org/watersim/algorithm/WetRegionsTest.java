@@ -0,0 +1,59 @@
+package org.watersim.algorithm;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+import org.watersim.grid.Grid;
+import org.watersim.grid.WallGrid;
+import org.watersim.util.Config;
+import org.watersim.util.TestConfigs;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WetRegionsTest {
+
+    private static final int SIZE = 128;
+    private static final int FRAMES = 60;
+
+    // lakes as first and last cell x and y, with a step in the water level and no walls around them
+    private static final int[][] LAKES = {{20, 20, 36, 44}, {72, 84, 112, 100}};
+
+    @Test
+    void regionsStayBoundedOverFrames() {
+        Config config = TestConfigs.create(SIZE, SIZE, Map.of("swe", false, "airyWetRegions", true));
+
+        Grid grid = new Grid(config);
+        WallGrid wallGrid = new WallGrid(config);
+        for (int[] lake : LAKES) {
+            for (int y = lake[1]; y <= lake[3]; y++) {
+                for (int x = lake[0]; x <= lake[2]; x++) {
+                    grid.h[grid.index(x, y)] = x < (lake[0] + lake[2]) / 2 ? 3 : 2;
+                }
+            }
+        }
+        wallGrid.updateConnectivity();
+
+        Simulator simulator = new Simulator(config, Pair.of(grid, wallGrid));
+        WetRegions wetRegions = new WetRegions(config);
+
+        // the regions the next airy pass solves, from the grid each frame leaves behind. spilled films used to grow
+        // them by a tile or more every few frames until the whole grid was solved
+        for (int frame = 1; frame <= FRAMES; frame++) {
+            wetRegions.update(simulator.makeNewGrid());
+
+            long area = 0;
+            for (int[] region : wetRegions.getRegions()) {
+                area += (long) region[2] * region[3];
+            }
+
+            int currentFrame = frame;
+            long currentArea = area;
+            assertFalse(wetRegions.coversGrid(), () -> "frame %s solves the whole grid".formatted(currentFrame));
+            assertTrue(area <= SIZE * SIZE / 2, () -> "frame %s regions cover %s cells".formatted(currentFrame, currentArea));
+        }
+
+        config.close();
+    }
+}
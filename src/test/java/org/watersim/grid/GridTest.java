@@ -0,0 +1,95 @@
+package org.watersim.grid;
+
+import jdk.incubator.vector.FloatVector;
+import org.junit.jupiter.api.Test;
+import org.watersim.util.Config;
+import org.watersim.util.TestConfigs;
+import org.watersim.util.VectorKernels;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GridTest {
+
+    private static final int LANES = FloatVector.SPECIES_PREFERRED.length();
+    private static final int HEIGHT = 5;
+
+    private final Random random = new Random(7);
+
+    // widths around and between multiples of the lane count, so every row has a scalar tail of some length
+    private static int[] widths() {
+        return IntStream.of(1, 2, LANES - 1, LANES, LANES + 1, 2 * LANES - 1, 2 * LANES + 3, 3 * LANES + LANES / 2, 61)
+                .filter(w -> w > 0)
+                .distinct()
+                .toArray();
+    }
+
+    private static Config config(int width, boolean vectorize) {
+        return TestConfigs.create(width, HEIGHT, Map.of("vectorize", vectorize));
+    }
+
+    // random flows and velocities everywhere, the boundary included since the first cells read their left and up
+    // neighbours, with some exact zeros and negative zeros
+    private void fillRandom(Grid grid) {
+        for (float[] plane : new float[][] {grid.qx, grid.qy, grid.ux, grid.uy}) {
+            for (int i = 0; i < plane.length; i++) {
+                float roll = random.nextFloat();
+                plane[i] = roll < 0.1f ? 0
+                        : roll < 0.15f ? -0f
+                        : (random.nextFloat() - 0.5f) * 10;
+            }
+        }
+    }
+
+    @Test
+    void vectorizedDivergenceMatchesScalarLoop() {
+        assertTrue(VectorKernels.isSupported(), "vector size not covered by the kernels");
+
+        for (int width : widths()) {
+            Config scalarConfig = config(width, false);
+            Config vectorConfig = config(width, true);
+            assertTrue(vectorConfig.vectorize, "run the tests with --add-modules jdk.incubator.vector");
+
+            Grid scalar = new Grid(scalarConfig);
+            fillRandom(scalar);
+            Grid vector = new Grid(vectorConfig);
+            vector.copyFrom(scalar);
+
+            scalar.computeDivergence();
+            vector.computeDivergence();
+
+            assertArrayEquals(scalar.divQ, vector.divQ, "width %s".formatted(width));
+            assertArrayEquals(scalar.divU, vector.divU, "width %s".formatted(width));
+
+            scalarConfig.close();
+            vectorConfig.close();
+        }
+    }
+
+    @Test
+    void divergenceKernelStopsBeforePartialVector() {
+        for (int width : widths()) {
+            Config config = config(width, true);
+            Grid grid = new Grid(config);
+            fillRandom(grid);
+
+            for (int y = 1; y <= HEIGHT; y++) {
+                int end = VectorKernels.divergenceRow(grid, y);
+                assertTrue(end >= 1 && end <= width + 1 && (end - 1) % LANES == 0 && width + 1 - end < LANES,
+                        "width %s ended at %s".formatted(width, end));
+
+                // cells from end on are left for the scalar loop
+                for (int x = end; x <= width; x++) {
+                    int i = grid.index(x, y);
+                    assertTrue(grid.divQ[i] == 0 && grid.divU[i] == 0, "width %s wrote cell %s".formatted(width, x));
+                }
+            }
+
+            config.close();
+        }
+    }
+}
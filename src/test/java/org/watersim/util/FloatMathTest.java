@@ -0,0 +1,46 @@
+package org.watersim.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FloatMathTest {
+
+    private static final int SAMPLES = 1_000_000;
+
+    @Test
+    void expStaysWithinBoundOfMathExp() {
+        for (int degree = FloatMath.MIN_DEGREE; degree <= FloatMath.MAX_DEGREE; degree++) {
+            FloatMath floatMath = new FloatMath(degree);
+            double bound = FloatMath.getErrorBound(degree);
+
+            // the damping and diffusion exponents are small and mostly negative, the rest of the range keeps its
+            // results normal floats
+            assertBelow(floatMath, -20, 5, bound, degree);
+            assertBelow(floatMath, -87, 88, bound, degree);
+        }
+    }
+
+    @Test
+    void expHandlesEdgesOfRange() {
+        for (int degree = FloatMath.MIN_DEGREE; degree <= FloatMath.MAX_DEGREE; degree++) {
+            FloatMath floatMath = new FloatMath(degree);
+
+            assertEquals(1f, floatMath.exp(0), "degree %s".formatted(degree));
+            assertEquals(Float.POSITIVE_INFINITY, floatMath.exp(89), "degree %s".formatted(degree));
+            assertEquals(0f, floatMath.exp(-104), "degree %s".formatted(degree));
+            assertTrue(Float.isNaN(floatMath.exp(Float.NaN)), "degree %s".formatted(degree));
+        }
+    }
+
+    private static void assertBelow(FloatMath floatMath, float from, float to, double bound, int degree) {
+        for (int i = 0; i <= SAMPLES; i++) {
+            float x = from + (to - from) * i / SAMPLES;
+            double expected = Math.exp(x);
+            double error = Math.abs(floatMath.exp(x) - expected) / expected;
+
+            assertTrue(error <= bound, () -> "degree %s, exp(%s) off by %s".formatted(degree, x, error));
+        }
+    }
+}
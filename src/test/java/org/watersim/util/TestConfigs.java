@@ -0,0 +1,22 @@
+package org.watersim.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestConfigs {
+
+    // single threaded 60 fps config with swe and airy on, the settings are added on top and win
+    public static Config create(int width, int height, Map<String, Object> settings) {
+        Map<String, Object> all = new HashMap<>();
+        all.put("fps", 60);
+        all.put("seconds", 1);
+        all.put("width", width);
+        all.put("height", height);
+        all.put("swe", true);
+        all.put("airy", true);
+        all.put("threads", 1);
+        all.putAll(settings);
+
+        return Config.create("test", all, 1);
+    }
+}